@@ -0,0 +1,171 @@
+package com.example.android.pets;
+
+import android.app.Instrumentation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+import android.widget.ListView;
+
+import com.example.android.pets.data.PetCatalogStore;
+import com.example.android.pets.data.PetsContract;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Fails when starting the catalog or scrolling its list gets slower than the budgets below.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class CatalogActivityPerformanceTest {
+
+    /** Breed of the pets added by this test, so they can be removed again */
+    private static final String TEST_BREED = "catalog-performance-test";
+
+    /** Enough pets to scroll through several screens */
+    private static final int PET_COUNT = 300;
+
+    /** Longest acceptable time spent in CatalogActivity.onCreate */
+    private static final long STARTUP_BUDGET_MILLIS = 500;
+
+    /** Highest acceptable share of janky frames while scrolling */
+    private static final double JANK_BUDGET = 0.1;
+
+    /** How long to wait for the list to load or to finish scrolling */
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    @Rule
+    public ActivityTestRule<CatalogActivity> mActivityRule =
+            new ActivityTestRule<>(CatalogActivity.class, false, false);
+
+    private Instrumentation mInstrumentation;
+    private ContentResolver mContentResolver;
+
+    @Before
+    public void insertPets() {
+        mInstrumentation = InstrumentationRegistry.getInstrumentation();
+        mContentResolver = mInstrumentation.getTargetContext().getContentResolver();
+
+        ContentValues[] pets = new ContentValues[PET_COUNT];
+        for (int i = 0; i < PET_COUNT; i++) {
+            pets[i] = new ContentValues();
+            pets[i].put(PetsContract.PetsEntry.COLUMN_PET_NAME, "Pet " + i);
+            pets[i].put(PetsContract.PetsEntry.COLUMN_PET_BREED, TEST_BREED);
+            pets[i].put(PetsContract.PetsEntry.COLUMN_PET_GENDER, PetsContract.PetsEntry.GENDER_UNKNOWN);
+            pets[i].put(PetsContract.PetsEntry.COLUMN_PET_WEIGHT, i % 40);
+        }
+        mContentResolver.bulkInsert(PetsContract.PetsEntry.CONTENT_URI, pets);
+    }
+
+    @After
+    public void deletePets() {
+        mContentResolver.delete(PetsContract.PetsEntry.CONTENT_URI,
+                PetsContract.PetsEntry.COLUMN_PET_BREED + "=?", new String[]{TEST_BREED});
+    }
+
+    @Test
+    public void startupWithinBudget() {
+        CatalogActivity activity = mActivityRule.launchActivity(null);
+
+        long startupTime = activity.getStartupTimeMillis();
+        assertTrue("CatalogActivity.onCreate took " + startupTime + " ms, budget is "
+                + STARTUP_BUDGET_MILLIS + " ms", startupTime <= STARTUP_BUDGET_MILLIS);
+    }
+
+    @Test
+    public void scrollingWithinJankBudget() throws InterruptedException {
+        assumeTrue(FrameJankTracker.isSupported());
+
+        CatalogActivity activity = mActivityRule.launchActivity(null);
+        final FrameJankTracker tracker = activity.getFrameJankTracker();
+        assertNotNull("Frame tracking is only installed in debug builds", tracker);
+        final ListView list = (ListView) activity.findViewById(R.id.item_list_view);
+        waitForPets(list);
+        waitForSnapshot(activity, list);
+
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                tracker.reset();
+                list.smoothScrollToPosition(list.getCount() - 1);
+            }
+        });
+        waitForScrollEnd(tracker);
+
+        int totalFrames = tracker.getTotalFrames();
+        int jankyFrames = tracker.getJankyFrames();
+        assertTrue("No frames were recorded while scrolling", totalFrames > 0);
+        assertTrue(jankyFrames + " of " + totalFrames + " frames took longer than "
+                        + tracker.getJankThresholdMillis() + " ms, max frame time "
+                        + tracker.getMaxFrameTimeMillis() + " ms",
+                jankyFrames <= totalFrames * JANK_BUDGET);
+    }
+
+    /**
+     * Waits until the list shows all test pets.
+     */
+    private void waitForPets(final ListView list) throws InterruptedException {
+        final boolean[] loaded = new boolean[1];
+        long deadline = SystemClock.uptimeMillis() + TIMEOUT_MILLIS;
+        while (!loaded[0]) {
+            assertTrue("Pets did not load in time", SystemClock.uptimeMillis() < deadline);
+            Thread.sleep(50);
+            mInstrumentation.runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    loaded[0] = list.getCount() >= PET_COUNT;
+                }
+            });
+        }
+        mInstrumentation.waitForIdleSync();
+    }
+
+    /**
+     * Waits until the list shows the catalog store's snapshot of all test pets, so the adapter
+     * is not swapped in the middle of the scroll.
+     */
+    private void waitForSnapshot(CatalogActivity activity, final ListView list)
+            throws InterruptedException {
+        final PetCatalogStore store = PetCatalogStore.getInstance(activity);
+        final boolean[] loaded = new boolean[1];
+        long deadline = SystemClock.uptimeMillis() + TIMEOUT_MILLIS;
+        while (!loaded[0]) {
+            assertTrue("Snapshot did not load in time", SystemClock.uptimeMillis() < deadline);
+            Thread.sleep(50);
+            mInstrumentation.runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    PetCatalogStore.Snapshot snapshot = store.getSnapshot();
+                    loaded[0] = snapshot != null && snapshot.size() >= PET_COUNT
+                            && list.getAdapter() instanceof PetSnapshotAdapter
+                            && list.getCount() >= PET_COUNT;
+                }
+            });
+        }
+        mInstrumentation.waitForIdleSync();
+    }
+
+    /**
+     * Waits until the list has started and then stopped scrolling.
+     */
+    private void waitForScrollEnd(FrameJankTracker tracker) throws InterruptedException {
+        long deadline = SystemClock.uptimeMillis() + TIMEOUT_MILLIS;
+        boolean started = false;
+        while (!started || tracker.isTracking()) {
+            assertTrue("Scrolling did not finish in time", SystemClock.uptimeMillis() < deadline);
+            Thread.sleep(50);
+            started |= tracker.isTracking() || tracker.getTotalFrames() > 0;
+        }
+    }
+}
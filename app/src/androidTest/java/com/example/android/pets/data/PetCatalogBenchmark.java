@@ -0,0 +1,258 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Bundle;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the in-memory {@link PetCatalogStore.Snapshot} with provider queries for sorting
+ * and filtering a catalog of {@link #ROWS} pets, and compares the memory each of them holds.
+ *
+ * The cursor side of each comparison is a provider query with the same order or selection,
+ * walked to the end so that SQLite produces every row. Memory is reported as the Java heap
+ * delta and the process PSS delta, the latter includes the native cursor window. Results are
+ * written to the log under {@link #TAG} and reported as instrumentation status.
+ *
+ * The pets are written straight to the database without notifying observers, so a running
+ * {@link PetCatalogStore} does not reload them in the middle of the measurements.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class PetCatalogBenchmark {
+
+    private static final String TAG = "PetCatalogBenchmark";
+
+    private static final int ROWS = 100000;
+
+    /** Measured runs per operation, the median is reported */
+    private static final int RUNS = 5;
+
+    /** Prefix of the names of the pets added by this benchmark, so they can be removed again */
+    private static final String NAME_PREFIX = "bench-";
+
+    private static final String[] BREEDS = {"Beagle", "Boxer", "Collie", "Husky", "Persian",
+            "Poodle", "Pug", "Siamese", "Tabby", "Terrier"};
+
+    private static final String[] ID_PROJECTION = {PetsContract.PetsEntry._ID};
+
+    /** The columns that the catalog store keeps in memory */
+    private static final String[] CATALOG_PROJECTION = {
+            PetsContract.PetsEntry._ID,
+            PetsContract.PetsEntry.COLUMN_PET_NAME,
+            PetsContract.PetsEntry.COLUMN_PET_BREED,
+            PetsContract.PetsEntry.COLUMN_PET_GENDER,
+            PetsContract.PetsEntry.COLUMN_PET_WEIGHT};
+
+    private ContentResolver mContentResolver;
+    private SQLiteDatabase mDatabase;
+
+    @Before
+    public void insertPets() throws InterruptedException {
+        mContentResolver = InstrumentationRegistry.getTargetContext().getContentResolver();
+        mDatabase = PetsDBHelper.getInstance(InstrumentationRegistry.getTargetContext()).getDatabase();
+
+        // Insert straight into the database, going through the provider would take minutes
+        SQLiteStatement insert = mDatabase.compileStatement("INSERT INTO "
+                + PetsContract.PetsEntry.TABLE_NAME + " ("
+                + PetsContract.PetsEntry.COLUMN_PET_NAME + ", "
+                + PetsContract.PetsEntry.COLUMN_PET_BREED + ", "
+                + PetsContract.PetsEntry.COLUMN_PET_GENDER + ", "
+                + PetsContract.PetsEntry.COLUMN_PET_WEIGHT + ") VALUES (?, ?, ?, ?)");
+        Random random = new Random(42);
+        mDatabase.beginTransaction();
+        try {
+            for (int i = 0; i < ROWS; i++) {
+                // A quarter as many names as pets, so the pool has duplicates to share
+                insert.bindString(1, NAME_PREFIX + random.nextInt(ROWS / 4));
+                insert.bindString(2, BREEDS[random.nextInt(BREEDS.length)]);
+                insert.bindLong(3, random.nextInt(3));
+                insert.bindLong(4, random.nextInt(80));
+                insert.executeInsert();
+            }
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+            insert.close();
+        }
+
+        // Let the store finish whatever earlier tests left queued
+        PetCatalogStore.awaitIdle();
+    }
+
+    @After
+    public void deletePets() {
+        mDatabase.delete(PetsContract.PetsEntry.TABLE_NAME,
+                PetsContract.PetsEntry.COLUMN_PET_NAME + " LIKE ?", new String[]{NAME_PREFIX + "%"});
+        // In case the store loaded the pets after all, let it drop them again
+        mContentResolver.notifyChange(PetsContract.PetsEntry.CONTENT_URI, null);
+    }
+
+    @Test
+    public void snapshotAgainstCursor() {
+        Bundle results = new Bundle();
+
+        measureCursorMemory(results);
+
+        long heapBefore = usedHeap();
+        long pssBefore = totalPssKb();
+        long start = System.nanoTime();
+        PetCatalogStore.Snapshot snapshot = PetCatalogStore.load(mContentResolver);
+        results.putLong("snapshot_load_ms", (System.nanoTime() - start) / 1000000);
+        results.putLong("snapshot_heap_bytes", usedHeap() - heapBefore);
+        results.putLong("snapshot_pss_kb", totalPssKb() - pssBefore);
+        results.putLong("snapshot_estimate_bytes", snapshot.estimateMemoryBytes());
+        results.putInt("snapshot_rows", snapshot.size());
+        results.putInt("snapshot_pool_strings", snapshot.poolSize());
+
+        final int[] all = snapshot.allRows();
+        String byName = PetsContract.PetsEntry.COLUMN_PET_NAME + " COLLATE NOCASE, "
+                + PetsContract.PetsEntry.COLUMN_PET_NAME + ", " + PetsContract.PetsEntry._ID;
+        String byWeight = PetsContract.PetsEntry.COLUMN_PET_WEIGHT + ", " + PetsContract.PetsEntry._ID;
+        String maleOnly = PetsContract.PetsEntry.COLUMN_PET_GENDER + "=?";
+        String[] male = {String.valueOf(PetsContract.PetsEntry.GENDER_MALE)};
+
+        // The snapshot must give the same order as SQLite, otherwise the timings mean nothing
+        assertArrayEquals(queryIds(null, null, byName), ids(snapshot, snapshot.sortByName(all)));
+        assertArrayEquals(queryIds(null, null, byWeight), ids(snapshot, snapshot.sortByWeight(all)));
+        assertArrayEquals(queryIds(maleOnly, male, PetsContract.PetsEntry._ID),
+                ids(snapshot, snapshot.filterByGender(all, PetsContract.PetsEntry.GENDER_MALE)));
+
+        long[] cursorSortByName = new long[RUNS];
+        long[] cursorSortByWeight = new long[RUNS];
+        long[] cursorFilter = new long[RUNS];
+        long[] snapshotSortByName = new long[RUNS];
+        long[] snapshotSortByWeight = new long[RUNS];
+        long[] snapshotFilter = new long[RUNS];
+        for (int run = 0; run < RUNS; run++) {
+            start = System.nanoTime();
+            queryIds(null, null, byName);
+            cursorSortByName[run] = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            queryIds(null, null, byWeight);
+            cursorSortByWeight[run] = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            queryIds(maleOnly, male, PetsContract.PetsEntry._ID);
+            cursorFilter[run] = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            snapshot.sortByName(all);
+            snapshotSortByName[run] = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            snapshot.sortByWeight(all);
+            snapshotSortByWeight[run] = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            snapshot.filterByGender(all, PetsContract.PetsEntry.GENDER_MALE);
+            snapshotFilter[run] = System.nanoTime() - start;
+        }
+
+        results.putDouble("cursor_sort_by_name_ms", medianMillis(cursorSortByName));
+        results.putDouble("snapshot_sort_by_name_ms", medianMillis(snapshotSortByName));
+        results.putDouble("cursor_sort_by_weight_ms", medianMillis(cursorSortByWeight));
+        results.putDouble("snapshot_sort_by_weight_ms", medianMillis(snapshotSortByWeight));
+        results.putDouble("cursor_filter_ms", medianMillis(cursorFilter));
+        results.putDouble("snapshot_filter_ms", medianMillis(snapshotFilter));
+        Log.i(TAG, results.toString());
+        InstrumentationRegistry.getInstrumentation().sendStatus(0, results);
+
+        assertTrue("Sorting by name is slower in memory: " + results,
+                medianMillis(snapshotSortByName) < medianMillis(cursorSortByName));
+        assertTrue("Sorting by weight is slower in memory: " + results,
+                medianMillis(snapshotSortByWeight) < medianMillis(cursorSortByWeight));
+        assertTrue("Filtering is slower in memory: " + results,
+                medianMillis(snapshotFilter) < medianMillis(cursorFilter));
+    }
+
+    /**
+     * Opens a provider cursor over the columns the catalog store keeps and reads every row, like
+     * the list adapter does while scrolling. Reports what the open cursor holds in memory.
+     */
+    private void measureCursorMemory(Bundle results) {
+        long heapBefore = usedHeap();
+        long pssBefore = totalPssKb();
+        long start = System.nanoTime();
+        Cursor cursor = mContentResolver.query(PetsContract.PetsEntry.CONTENT_URI,
+                CATALOG_PROJECTION, null, null, PetsContract.PetsEntry._ID);
+        try {
+            while (cursor.moveToNext()) {
+                cursor.getLong(0);
+                cursor.getString(1);
+                cursor.getString(2);
+                cursor.getInt(3);
+                cursor.getInt(4);
+            }
+            results.putLong("cursor_load_ms", (System.nanoTime() - start) / 1000000);
+            results.putInt("cursor_rows", cursor.getCount());
+            results.putLong("cursor_heap_bytes", usedHeap() - heapBefore);
+            results.putLong("cursor_pss_kb", totalPssKb() - pssBefore);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Queries the provider and walks the whole cursor, returning the ids in cursor order.
+     */
+    private long[] queryIds(String selection, String[] selectionArgs, String sortOrder) {
+        Cursor cursor = mContentResolver.query(PetsContract.PetsEntry.CONTENT_URI, ID_PROJECTION,
+                selection, selectionArgs, sortOrder);
+        try {
+            long[] ids = new long[cursor.getCount()];
+            int row = 0;
+            while (cursor.moveToNext()) {
+                ids[row++] = cursor.getLong(0);
+            }
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static long[] ids(PetCatalogStore.Snapshot snapshot, int[] rows) {
+        long[] ids = new long[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            ids[i] = snapshot.getId(rows[i]);
+        }
+        return ids;
+    }
+
+    private static double medianMillis(long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2] / 1000000.0;
+    }
+
+    private static long totalPssKb() {
+        Debug.MemoryInfo memoryInfo = new Debug.MemoryInfo();
+        Debug.getMemoryInfo(memoryInfo);
+        return memoryInfo.getTotalPss();
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        runtime.gc();
+        runtime.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,247 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.MediumTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.pets.data.PetsContract.PetWeightRollupsEntry;
+import com.example.android.pets.data.PetsContract.PetWeightsEntry;
+import com.example.android.pets.data.PetsContract.PetsEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the weigh-in insert path of {@link PetProvider} and the rollups it maintains.
+ */
+@RunWith(AndroidJUnit4.class)
+@MediumTest
+public class PetProviderWeightTest {
+
+    private static final long DAY = 24L * 60 * 60 * 1000;
+
+    /** Monday 2024-01-01 00:00 UTC */
+    private static final long MONDAY_2024_01_01 = 1704067200000L;
+
+    /** Thursday 2024-02-01 00:00 UTC, in the week of Monday 2024-01-29 */
+    private static final long FEBRUARY_2024 = 1706745600000L;
+
+    private ContentResolver mContentResolver;
+    private long mPetId;
+
+    @Before
+    public void insertPet() {
+        mContentResolver = InstrumentationRegistry.getTargetContext().getContentResolver();
+
+        ContentValues pet = new ContentValues();
+        pet.put(PetsEntry.COLUMN_PET_NAME, "Weight test");
+        pet.put(PetsEntry.COLUMN_PET_GENDER, PetsEntry.GENDER_UNKNOWN);
+        mPetId = ContentUris.parseId(mContentResolver.insert(PetsEntry.CONTENT_URI, pet));
+    }
+
+    @After
+    public void deletePet() {
+        // Weigh-ins and rollups are removed with the pet
+        mContentResolver.delete(ContentUris.withAppendedId(PetsEntry.CONTENT_URI, mPetId), null, null);
+    }
+
+    @Test
+    public void insertedWeighInCanBeQueried() {
+        Uri uri = insertWeight(7, MONDAY_2024_01_01);
+
+        Cursor cursor = mContentResolver.query(uri, null, null, null, null);
+        try {
+            assertEquals(1, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals(7, cursor.getInt(cursor.getColumnIndexOrThrow(PetWeightsEntry.COLUMN_WEIGHT)));
+            assertEquals(MONDAY_2024_01_01,
+                    cursor.getLong(cursor.getColumnIndexOrThrow(PetWeightsEntry.COLUMN_MEASURED_AT)));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void weeklyRollupsAggregateWeighIns() {
+        insertWeight(10, MONDAY_2024_01_01);
+        insertWeight(12, MONDAY_2024_01_01 + 2 * DAY);
+        insertWeight(11, MONDAY_2024_01_01 + 7 * DAY);
+        insertWeight(9, FEBRUARY_2024);
+
+        Cursor cursor = queryRollups(PetWeightRollupsEntry.PERIOD_WEEK);
+        try {
+            assertEquals(3, cursor.getCount());
+            cursor.moveToNext();
+            assertRollup(cursor, MONDAY_2024_01_01, 2, 22, 10, 12);
+            cursor.moveToNext();
+            assertRollup(cursor, MONDAY_2024_01_01 + 7 * DAY, 1, 11, 11, 11);
+            cursor.moveToNext();
+            assertRollup(cursor, MONDAY_2024_01_01 + 28 * DAY, 1, 9, 9, 9);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void monthlyRollupsAggregateWeighIns() {
+        insertWeight(10, MONDAY_2024_01_01);
+        insertWeight(12, MONDAY_2024_01_01 + 2 * DAY);
+        insertWeight(11, MONDAY_2024_01_01 + 7 * DAY);
+        insertWeight(9, FEBRUARY_2024);
+
+        Cursor cursor = queryRollups(PetWeightRollupsEntry.PERIOD_MONTH);
+        try {
+            assertEquals(2, cursor.getCount());
+            cursor.moveToNext();
+            assertRollup(cursor, MONDAY_2024_01_01, 3, 33, 10, 12);
+            cursor.moveToNext();
+            assertRollup(cursor, FEBRUARY_2024, 1, 9, 9, 9);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void outOfOrderWeighInsUpdateMinAndMax() {
+        insertWeight(10, MONDAY_2024_01_01 + 3 * DAY);
+        insertWeight(14, MONDAY_2024_01_01 + DAY);
+        insertWeight(8, MONDAY_2024_01_01);
+
+        Cursor cursor = queryRollups(PetWeightRollupsEntry.PERIOD_WEEK);
+        try {
+            assertEquals(1, cursor.getCount());
+            cursor.moveToNext();
+            assertRollup(cursor, MONDAY_2024_01_01, 3, 32, 8, 14);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void newestWeighInBecomesPetWeight() {
+        insertWeight(7, MONDAY_2024_01_01);
+        assertEquals(7, queryPetWeight());
+
+        // An older weigh-in only fills in the history
+        insertWeight(3, MONDAY_2024_01_01 - DAY);
+        assertEquals(7, queryPetWeight());
+    }
+
+    @Test
+    public void insertingPetWithWeightRecordsWeighIn() {
+        ContentValues pet = new ContentValues();
+        pet.put(PetsEntry.COLUMN_PET_NAME, "Weight test");
+        pet.put(PetsEntry.COLUMN_PET_GENDER, PetsEntry.GENDER_UNKNOWN);
+        pet.put(PetsEntry.COLUMN_PET_WEIGHT, 5);
+        Uri petUri = mContentResolver.insert(PetsEntry.CONTENT_URI, pet);
+        try {
+            Cursor cursor = queryWeights(ContentUris.parseId(petUri));
+            try {
+                assertEquals(1, cursor.getCount());
+                cursor.moveToFirst();
+                assertEquals(5, cursor.getInt(cursor.getColumnIndexOrThrow(PetWeightsEntry.COLUMN_WEIGHT)));
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            mContentResolver.delete(petUri, null, null);
+        }
+    }
+
+    @Test
+    public void changingPetWeightRecordsWeighIn() {
+        Uri petUri = ContentUris.withAppendedId(PetsEntry.CONTENT_URI, mPetId);
+        ContentValues values = new ContentValues();
+        values.put(PetsEntry.COLUMN_PET_WEIGHT, 9);
+        mContentResolver.update(petUri, values, null, null);
+
+        // Saving the same weight again, or other columns, is not a new weigh-in
+        mContentResolver.update(petUri, values, null, null);
+        ContentValues name = new ContentValues();
+        name.put(PetsEntry.COLUMN_PET_NAME, "Renamed weight test");
+        mContentResolver.update(petUri, name, null, null);
+
+        Cursor cursor = queryWeights(mPetId);
+        try {
+            assertEquals(1, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals(9, cursor.getInt(cursor.getColumnIndexOrThrow(PetWeightsEntry.COLUMN_WEIGHT)));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void weighInForUnknownPetThrows() {
+        ContentValues values = new ContentValues();
+        values.put(PetWeightsEntry.COLUMN_PET_ID, Long.MAX_VALUE);
+        values.put(PetWeightsEntry.COLUMN_WEIGHT, 5);
+        mContentResolver.insert(PetWeightsEntry.CONTENT_URI, values);
+    }
+
+    @Test
+    public void weighInsAreAppendOnly() {
+        Uri uri = insertWeight(7, MONDAY_2024_01_01);
+        ContentValues values = new ContentValues();
+        values.put(PetWeightsEntry.COLUMN_WEIGHT, 8);
+
+        try {
+            mContentResolver.update(uri, values, null, null);
+            fail("Weigh-ins must not be updated");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            mContentResolver.delete(uri, null, null);
+            fail("Weigh-ins must not be deleted");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    private Uri insertWeight(int weight, long measuredAt) {
+        ContentValues values = new ContentValues();
+        values.put(PetWeightsEntry.COLUMN_PET_ID, mPetId);
+        values.put(PetWeightsEntry.COLUMN_WEIGHT, weight);
+        values.put(PetWeightsEntry.COLUMN_MEASURED_AT, measuredAt);
+        return mContentResolver.insert(PetWeightsEntry.CONTENT_URI, values);
+    }
+
+    private Cursor queryWeights(long petId) {
+        return mContentResolver.query(PetWeightsEntry.CONTENT_URI, null,
+                PetWeightsEntry.COLUMN_PET_ID + "=?", new String[]{String.valueOf(petId)}, null);
+    }
+
+    private int queryPetWeight() {
+        Cursor cursor = mContentResolver.query(ContentUris.withAppendedId(PetsEntry.CONTENT_URI, mPetId),
+                new String[]{PetsEntry.COLUMN_PET_WEIGHT}, null, null, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private Cursor queryRollups(int period) {
+        return mContentResolver.query(PetWeightRollupsEntry.CONTENT_URI, null,
+                PetWeightRollupsEntry.COLUMN_PET_ID + "=? AND " + PetWeightRollupsEntry.COLUMN_PERIOD + "=?",
+                new String[]{String.valueOf(mPetId), String.valueOf(period)}, null);
+    }
+
+    private static void assertRollup(Cursor cursor, long periodStart, int count, int sum, int min, int max) {
+        assertEquals(periodStart, cursor.getLong(cursor.getColumnIndexOrThrow(PetWeightRollupsEntry.COLUMN_PERIOD_START)));
+        assertEquals(count, cursor.getInt(cursor.getColumnIndexOrThrow(PetWeightRollupsEntry.COLUMN_COUNT)));
+        assertEquals(sum, cursor.getInt(cursor.getColumnIndexOrThrow(PetWeightRollupsEntry.COLUMN_SUM)));
+        assertEquals(min, cursor.getInt(cursor.getColumnIndexOrThrow(PetWeightRollupsEntry.COLUMN_MIN)));
+        assertEquals(max, cursor.getInt(cursor.getColumnIndexOrThrow(PetWeightRollupsEntry.COLUMN_MAX)));
+    }
+}
@@ -18,30 +18,84 @@ package com.example.android.pets;
 import android.content.ContentValues;
 import android.content.Intent;
 import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.StrictMode;
+import android.os.SystemClock;
 import android.support.design.widget.FloatingActionButton;
+import android.support.v4.os.TraceCompat;
 import android.support.v7.app.AppCompatActivity;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.widget.ListView;
 
+import com.example.android.pets.data.PetCatalogStore;
 import com.example.android.pets.data.PetsContract;
-import com.example.android.pets.data.PetsDBHelper;
 
 /**
  * Displays list of pets that were entered and stored in the app.
  */
 public class CatalogActivity extends AppCompatActivity {
 
-    private PetsDBHelper mDb;
+    /**
+     * Whether to render the list from the in-memory {@link PetCatalogStore} once it has loaded,
+     * instead of querying the provider on every display.
+     */
+    private static final boolean USE_CATALOG_STORE = true;
+
+    private static final int SORT_BY_ID = 0;
+    private static final int SORT_BY_NAME = 1;
+    private static final int SORT_BY_WEIGHT = 2;
+
+    /** Gender filter value that shows pets of every gender */
+    private static final int ALL_GENDERS = -1;
+
+    /** How the list is sorted, one of the SORT_BY constants */
+    private int mSortOrder = SORT_BY_ID;
+
+    /** Gender of the pets shown in the list, or {@link #ALL_GENDERS} */
+    private int mGenderFilter = ALL_GENDERS;
+
+    /** In-memory copy of the pets, null if {@link #USE_CATALOG_STORE} is off */
+    private PetCatalogStore mCatalogStore;
+
+    /** Shows every new snapshot of the catalog as soon as it is ready */
+    private final PetCatalogStore.Listener mCatalogListener = new PetCatalogStore.Listener() {
+        @Override
+        public void onSnapshotChanged(PetCatalogStore.Snapshot snapshot) {
+            displaySnapshot(snapshot);
+        }
+    };
+
+    /**
+     * Counts the requests to show a snapshot. A filtered and sorted snapshot is only shown if
+     * no newer request was made while it was being arranged. Main thread only.
+     */
+    private int mDisplayGeneration;
+
+    /** Collects frame times while the pet list is scrolled, null if unsupported or in release */
+    private FrameJankTracker mFrameJankTracker;
+
+    /** Time spent in {@link #onCreate(Bundle)}, in milliseconds. Also read by tests. */
+    private volatile long mStartupTimeMillis;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        long startTime = SystemClock.elapsedRealtime();
+        if (BuildConfig.DEBUG) {
+            enableStrictMode();
+        }
+
         super.onCreate(savedInstanceState);
-        setContentView(R.layout.activity_catalog);
+
+        TraceCompat.beginSection("Catalog.inflate");
+        try {
+            setContentView(R.layout.activity_catalog);
+        } finally {
+            TraceCompat.endSection();
+        }
 
         // Setup FAB to open EditorActivity
         FloatingActionButton fab = (FloatingActionButton) findViewById(R.id.fab);
@@ -53,9 +107,74 @@ public class CatalogActivity extends AppCompatActivity {
             }
         });
 
-         mDb = new PetsDBHelper(this);
+        // Frame tracking is a debugging aid like StrictMode, release builds go without
+        if (BuildConfig.DEBUG && FrameJankTracker.isSupported()) {
+            mFrameJankTracker = new FrameJankTracker(getWindowManager().getDefaultDisplay());
+            ListView petListView = (ListView) findViewById(R.id.item_list_view);
+            petListView.setOnScrollListener(mFrameJankTracker);
+        }
+
+        if (USE_CATALOG_STORE) {
+            mCatalogStore = PetCatalogStore.getInstance(this);
+            mCatalogStore.addListener(mCatalogListener);
+        }
 
         displayDatabaseInfo();
+
+        mStartupTimeMillis = SystemClock.elapsedRealtime() - startTime;
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (mCatalogStore != null) {
+            mCatalogStore.removeListener(mCatalogListener);
+        }
+        // Drop the result of any snapshot that is still being arranged
+        mDisplayGeneration++;
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        if (mFrameJankTracker != null) {
+            mFrameJankTracker.stop();
+        }
+    }
+
+    /**
+     * Flags disk and network access on the main thread, and leaked database objects.
+     * Violations are only logged so that debug builds keep running.
+     */
+    private void enableStrictMode() {
+        StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
+                .detectDiskReads()
+                .detectDiskWrites()
+                .detectNetwork()
+                .penaltyLog()
+                .build());
+        StrictMode.setVmPolicy(new StrictMode.VmPolicy.Builder()
+                .detectLeakedSqlLiteObjects()
+                .detectLeakedClosableObjects()
+                .penaltyLog()
+                .build());
+    }
+
+    /**
+     * Returns the frame time collector for the pet list, or null if the device does not
+     * support it or this is a release build. Used by instrumentation tests to check for
+     * scrolling jank.
+     */
+    public FrameJankTracker getFrameJankTracker() {
+        return mFrameJankTracker;
+    }
+
+    /**
+     * Returns the time spent in {@link #onCreate(Bundle)}, in milliseconds. Used by
+     * instrumentation tests to check for startup regressions.
+     */
+    public long getStartupTimeMillis() {
+        return mStartupTimeMillis;
     }
 
     @Override
@@ -66,8 +185,6 @@ public class CatalogActivity extends AppCompatActivity {
 
     private void insertDummy(){
 
-        SQLiteDatabase db = mDb.getReadableDatabase();
-
         ContentValues contentValues = new ContentValues();
         contentValues.put(PetsContract.PetsEntry.COLUMN_PET_NAME, "Tommy");
         contentValues.put(PetsContract.PetsEntry.COLUMN_PET_BREED, "Tommy");
@@ -100,6 +217,27 @@ public class CatalogActivity extends AppCompatActivity {
             case R.id.action_delete_all_entries:
                 // Do nothing for now
                 return true;
+            case R.id.action_sort_by_name:
+                mSortOrder = SORT_BY_NAME;
+                displayDatabaseInfo();
+                return true;
+            case R.id.action_sort_by_weight:
+                mSortOrder = SORT_BY_WEIGHT;
+                displayDatabaseInfo();
+                return true;
+            case R.id.action_show_male:
+                mGenderFilter = PetsContract.PetsEntry.GENDER_MALE;
+                displayDatabaseInfo();
+                return true;
+            case R.id.action_show_female:
+                mGenderFilter = PetsContract.PetsEntry.GENDER_FEMALE;
+                displayDatabaseInfo();
+                return true;
+            case R.id.action_show_all:
+                mSortOrder = SORT_BY_ID;
+                mGenderFilter = ALL_GENDERS;
+                displayDatabaseInfo();
+                return true;
         }
         return super.onOptionsItemSelected(item);
     }
@@ -110,6 +248,12 @@ public class CatalogActivity extends AppCompatActivity {
      */
     private void displayDatabaseInfo() {
 
+        // Once the catalog is in memory there is no need to query the provider
+        if (mCatalogStore != null && mCatalogStore.getSnapshot() != null) {
+            displaySnapshot(mCatalogStore.getSnapshot());
+            return;
+        }
+
         // Perform this raw SQL query "SELECT * FROM pets"
         // to get a Cursor that contains all rows from the pets table.
         //Cursor cursor = db.rawQuery("SELECT * FROM " + PetsContract.PetsEntry.TABLE_NAME, null);
@@ -120,17 +264,121 @@ public class CatalogActivity extends AppCompatActivity {
                 PetsContract.PetsEntry.COLUMN_PET_BREED};
 
 
-        Cursor cursor = getContentResolver().query( PetsContract.PetsEntry.CONTENT_URI, projection, null, null, null);
+        // Apply the gender filter and sort order in SQL
+        String selection = null;
+        String[] selectionArgs = null;
+        if (mGenderFilter != ALL_GENDERS) {
+            selection = PetsContract.PetsEntry.COLUMN_PET_GENDER + "=?";
+            selectionArgs = new String[]{String.valueOf(mGenderFilter)};
+        }
+        // Break ties the same way the snapshot does, so the order does not change when the
+        // snapshot takes over from the cursor
+        String sortOrder = PetsContract.PetsEntry._ID;
+        if (mSortOrder == SORT_BY_NAME) {
+            sortOrder = PetsContract.PetsEntry.COLUMN_PET_NAME + " COLLATE NOCASE, "
+                    + PetsContract.PetsEntry.COLUMN_PET_NAME + ", " + PetsContract.PetsEntry._ID;
+        } else if (mSortOrder == SORT_BY_WEIGHT) {
+            sortOrder = PetsContract.PetsEntry.COLUMN_PET_WEIGHT + ", " + PetsContract.PetsEntry._ID;
+        }
+
+        Cursor cursor;
+        TraceCompat.beginSection("Catalog.query");
+        try {
+            cursor = getContentResolver().query( PetsContract.PetsEntry.CONTENT_URI, projection, selection, selectionArgs, sortOrder);
+        } finally {
+            TraceCompat.endSection();
+        }
+
+        TraceCompat.beginSection("Catalog.adapter");
+        try {
+            // Find ListView to populate
+            ListView petListView  = (ListView) findViewById(R.id.item_list_view);
+            View emptyView = findViewById(R.id.empty_view);
+            petListView.setEmptyView(emptyView);
+            // Close the cursor of the previous query, if there was one
+            if (petListView.getAdapter() instanceof PetCursorAdapter) {
+                ((PetCursorAdapter) petListView.getAdapter()).changeCursor(null);
+            }
+            // Setup cursor adapter using cursor from last step
+            PetCursorAdapter todoAdapter = new PetCursorAdapter(this, cursor);
+            // Attach cursor adapter to the ListView
+            petListView .setAdapter(todoAdapter);
+        } finally {
+            TraceCompat.endSection();
+        }
+    }
+
+    /**
+     * Show the pets of the given in-memory snapshot in the list, filtered and sorted without
+     * querying the database. Filtering and sorting run in the background, a large catalog takes
+     * too long for the main thread.
+     */
+    private void displaySnapshot(PetCatalogStore.Snapshot snapshot) {
+        new ArrangeRowsTask(snapshot, ++mDisplayGeneration, mGenderFilter, mSortOrder).execute();
+    }
+
+    /**
+     * Show the given rows of a snapshot in the list, reusing the adapter if there is one.
+     */
+    private void showRows(PetCatalogStore.Snapshot snapshot, int[] rows) {
+        ListView petListView = (ListView) findViewById(R.id.item_list_view);
+        petListView.setEmptyView(findViewById(R.id.empty_view));
 
+        // Reuse the adapter if there is one, so the list keeps its scroll position
+        if (petListView.getAdapter() instanceof PetSnapshotAdapter) {
+            ((PetSnapshotAdapter) petListView.getAdapter()).swapRows(snapshot, rows);
+        } else {
+            // Close the cursor of the provider query that was shown until now
+            if (petListView.getAdapter() instanceof PetCursorAdapter) {
+                ((PetCursorAdapter) petListView.getAdapter()).changeCursor(null);
+            }
+            petListView.setAdapter(new PetSnapshotAdapter(this, snapshot, rows));
+        }
+    }
 
-        // Find ListView to populate
-        ListView petListView  = (ListView) findViewById(R.id.item_list_view);
-        View emptyView = findViewById(R.id.empty_view);
-        petListView.setEmptyView(emptyView);
-// Setup cursor adapter using cursor from last step
-        PetCursorAdapter todoAdapter = new PetCursorAdapter(this, cursor);
-// Attach cursor adapter to the ListView
-        petListView .setAdapter(todoAdapter);
+    /**
+     * Filters and sorts the rows of a snapshot in the background, then shows them unless a
+     * newer snapshot or sort order was requested in the meantime.
+     */
+    private class ArrangeRowsTask extends AsyncTask<Void, Void, int[]> {
+
+        private final PetCatalogStore.Snapshot mSnapshot;
+        private final int mGeneration;
+        private final int mGender;
+        private final int mSort;
+
+        ArrangeRowsTask(PetCatalogStore.Snapshot snapshot, int generation, int gender, int sort) {
+            mSnapshot = snapshot;
+            mGeneration = generation;
+            mGender = gender;
+            mSort = sort;
+        }
+
+        @Override
+        protected int[] doInBackground(Void... params) {
+            TraceCompat.beginSection("Catalog.snapshot");
+            try {
+                int[] rows = mSnapshot.allRows();
+                if (mGender != ALL_GENDERS) {
+                    rows = mSnapshot.filterByGender(rows, mGender);
+                }
+                if (mSort == SORT_BY_NAME) {
+                    rows = mSnapshot.sortByName(rows);
+                } else if (mSort == SORT_BY_WEIGHT) {
+                    rows = mSnapshot.sortByWeight(rows);
+                }
+                return rows;
+            } finally {
+                TraceCompat.endSection();
+            }
+        }
+
+        @Override
+        protected void onPostExecute(int[] rows) {
+            if (mGeneration == mDisplayGeneration) {
+                showRows(mSnapshot, rows);
+            }
+        }
     }
 
 }
@@ -32,15 +32,12 @@ import android.widget.Spinner;
 import android.widget.Toast;
 
 import com.example.android.pets.data.PetsContract;
-import com.example.android.pets.data.PetsDBHelper;
 
 /**
  * Allows user to create a new pet or edit an existing one.
  */
 public class EditorActivity extends AppCompatActivity {
 
-    private PetsDBHelper mDb;
-
     /** EditText field to enter the pet's name */
     private EditText mNameEditText;
 
@@ -71,8 +68,6 @@ public class EditorActivity extends AppCompatActivity {
         mGenderSpinner = (Spinner) findViewById(R.id.spinner_gender);
 
         setupSpinner();
-
-        mDb = new PetsDBHelper(this);
     }
 
     /**
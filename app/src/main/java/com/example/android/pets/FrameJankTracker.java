@@ -0,0 +1,209 @@
+package com.example.android.pets;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.view.Choreographer;
+import android.view.Display;
+import android.widget.AbsListView;
+
+/**
+ * {@link FrameJankTracker} measures frame times while a list is being scrolled.
+ * It listens to the scroll state of an {@link AbsListView} and, for as long as the list is
+ * moving, records the interval between consecutive {@link Choreographer} frames. Frames that
+ * take longer than one and a half vsync intervals of the display are counted as janky.
+ *
+ * The collected numbers can be read back with the getters below, so instrumentation tests
+ * can scroll the catalog and fail when the jank count regresses. Frames are recorded on the
+ * main thread, but the getters may be called from any thread.
+ *
+ * Only create a tracker if {@link #isSupported()} returns true. The class itself can be loaded
+ * on any API level, the Choreographer callback lives in {@link FrameCallback}.
+ */
+public class FrameJankTracker implements AbsListView.OnScrollListener {
+
+    /** Refresh rate to assume if the display does not report a usable one */
+    private static final float DEFAULT_REFRESH_RATE = 60f;
+
+    /** Display whose refresh rate decides how long a frame may take */
+    private final Display mDisplay;
+
+    /** Receives the frames, created on the first {@link #start()} */
+    private FrameCallback mFrameCallback;
+
+    /**
+     * A frame that takes longer than this missed at least one vsync. Taken from the refresh
+     * rate of the display every time tracking starts, since it can change at runtime.
+     */
+    private volatile long mJankThresholdNanos;
+
+    /** Whether the list is currently scrolling and frames should be recorded */
+    private volatile boolean mTracking;
+
+    /** Vsync timestamp of the previous frame, or 0 if there is none yet. Main thread only. */
+    private long mLastFrameTimeNanos;
+
+    // The counters below are written on the main thread and read from tests, guarded by this
+
+    private int mTotalFrames;
+    private int mJankyFrames;
+    private long mTotalFrameTimeNanos;
+    private long mMaxFrameTimeNanos;
+
+    /**
+     * Returns whether frame tracking is possible on this device. {@link Choreographer}
+     * is only available from Jelly Bean onwards.
+     */
+    public static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN;
+    }
+
+    /**
+     * Creates a tracker that judges frame times by the refresh rate of the given display.
+     */
+    public FrameJankTracker(Display display) {
+        mDisplay = display;
+    }
+
+    @Override
+    public void onScrollStateChanged(AbsListView view, int scrollState) {
+        if (scrollState == SCROLL_STATE_IDLE) {
+            stop();
+        } else {
+            start();
+        }
+    }
+
+    @Override
+    public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount,
+                         int totalItemCount) {
+        // Frame times are taken from the Choreographer, nothing to do here
+    }
+
+    /**
+     * Records the time since the previous frame and asks for the next one. Called on the main
+     * thread by {@link FrameCallback}.
+     */
+    private void onFrame(long frameTimeNanos) {
+        if (!mTracking) {
+            return;
+        }
+
+        if (mLastFrameTimeNanos != 0) {
+            recordFrame(frameTimeNanos - mLastFrameTimeNanos);
+        }
+        mLastFrameTimeNanos = frameTimeNanos;
+
+        mFrameCallback.post();
+    }
+
+    private synchronized void recordFrame(long frameTime) {
+        mTotalFrames++;
+        mTotalFrameTimeNanos += frameTime;
+        if (frameTime > mMaxFrameTimeNanos) {
+            mMaxFrameTimeNanos = frameTime;
+        }
+        if (frameTime > mJankThresholdNanos) {
+            mJankyFrames++;
+        }
+    }
+
+    /**
+     * Starts recording frames. Does nothing if already recording. Must be called on the main
+     * thread.
+     */
+    public void start() {
+        if (mTracking) {
+            return;
+        }
+        float refreshRate = mDisplay.getRefreshRate();
+        if (refreshRate <= 0) {
+            refreshRate = DEFAULT_REFRESH_RATE;
+        }
+        long frameIntervalNanos = (long) (1000000000L / refreshRate);
+        mJankThresholdNanos = frameIntervalNanos + frameIntervalNanos / 2;
+
+        if (mFrameCallback == null) {
+            mFrameCallback = new FrameCallback();
+        }
+        mTracking = true;
+        mLastFrameTimeNanos = 0;
+        mFrameCallback.post();
+    }
+
+    /**
+     * Stops recording frames. The collected numbers are kept until {@link #reset()}. Must be
+     * called on the main thread.
+     */
+    public void stop() {
+        if (!mTracking) {
+            return;
+        }
+        mTracking = false;
+        mFrameCallback.remove();
+    }
+
+    /** Returns whether the list is scrolling and frames are being recorded */
+    public boolean isTracking() {
+        return mTracking;
+    }
+
+    /**
+     * Clears all collected numbers. Must be called on the main thread.
+     */
+    public synchronized void reset() {
+        mLastFrameTimeNanos = 0;
+        mTotalFrames = 0;
+        mJankyFrames = 0;
+        mTotalFrameTimeNanos = 0;
+        mMaxFrameTimeNanos = 0;
+    }
+
+    /** Returns the number of frames recorded while scrolling */
+    public synchronized int getTotalFrames() {
+        return mTotalFrames;
+    }
+
+    /** Returns the number of recorded frames that took longer than the jank threshold */
+    public synchronized int getJankyFrames() {
+        return mJankyFrames;
+    }
+
+    /** Returns the frame time above which a frame counts as janky, in milliseconds */
+    public double getJankThresholdMillis() {
+        return mJankThresholdNanos / 1000000.0;
+    }
+
+    /** Returns the longest recorded frame time, in milliseconds */
+    public synchronized double getMaxFrameTimeMillis() {
+        return mMaxFrameTimeNanos / 1000000.0;
+    }
+
+    /** Returns the average recorded frame time, in milliseconds */
+    public synchronized double getAverageFrameTimeMillis() {
+        if (mTotalFrames == 0) {
+            return 0;
+        }
+        return mTotalFrameTimeNanos / 1000000.0 / mTotalFrames;
+    }
+
+    /**
+     * Forwards {@link Choreographer} frames to the tracker. Kept in its own class so that
+     * {@link FrameJankTracker} still loads before Jelly Bean, where the interface is missing.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private class FrameCallback implements Choreographer.FrameCallback {
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            onFrame(frameTimeNanos);
+        }
+
+        void post() {
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        void remove() {
+            Choreographer.getInstance().removeFrameCallback(this);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.android.pets;
+
+import android.content.Context;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.TextView;
+
+import com.example.android.pets.data.PetCatalogStore;
+
+/**
+ * {@link PetSnapshotAdapter} is an adapter for a list or grid view that uses a
+ * {@link PetCatalogStore.Snapshot} of pet data as its data source. It shows the given rows of
+ * the snapshot in the given order, so a sorted or filtered list needs no database query.
+ */
+public class PetSnapshotAdapter extends BaseAdapter {
+
+    private final LayoutInflater mInflater;
+
+    private PetCatalogStore.Snapshot mSnapshot;
+
+    /** Positions of the shown rows in {@link #mSnapshot} */
+    private int[] mRows;
+
+    /**
+     * Constructs a new {@link PetSnapshotAdapter}.
+     *
+     * @param context  The context
+     * @param snapshot The snapshot from which to get the data.
+     * @param rows     The rows of the snapshot to show, in order.
+     */
+    public PetSnapshotAdapter(Context context, PetCatalogStore.Snapshot snapshot, int[] rows) {
+        mInflater = LayoutInflater.from(context);
+        mSnapshot = snapshot;
+        mRows = rows;
+    }
+
+    /**
+     * Shows the given rows of a new snapshot, for example after the data or the sort order
+     * changed.
+     */
+    public void swapRows(PetCatalogStore.Snapshot snapshot, int[] rows) {
+        mSnapshot = snapshot;
+        mRows = rows;
+        notifyDataSetChanged();
+    }
+
+    @Override
+    public int getCount() {
+        return mRows.length;
+    }
+
+    @Override
+    public Object getItem(int position) {
+        return mSnapshot.getUri(mRows[position]);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return mSnapshot.getId(mRows[position]);
+    }
+
+    @Override
+    public boolean hasStableIds() {
+        return true;
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        View view = convertView;
+        if (view == null) {
+            view = mInflater.inflate(R.layout.list_item, parent, false);
+        }
+
+        // Find fields to populate in inflated template
+        TextView tvname = (TextView) view.findViewById(R.id.name);
+        TextView tvsummary = (TextView) view.findViewById(R.id.summary);
+
+        // Populate fields straight from the snapshot, the strings are shared and not copied
+        int row = mRows[position];
+        tvname.setText(mSnapshot.getName(row));
+        tvsummary.setText(String.valueOf(mSnapshot.getBreed(row)));
+        return view;
+    }
+}
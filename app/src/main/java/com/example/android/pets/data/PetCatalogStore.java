@@ -0,0 +1,706 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.os.TraceCompat;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * {@link PetCatalogStore} keeps an in-memory copy of the pets table so the catalog can be
+ * listed, sorted and filtered without querying SQLite.
+ *
+ * The copy is a {@link Snapshot} that stores every column in a primitive array and every name
+ * and breed once in a sorted string pool. It is loaded from the {@link PetProvider} on a
+ * background thread. When the provider reports a change to a single pet, only that pet is
+ * read again and patched into a new snapshot; other changes reload the whole table.
+ *
+ * Bursts of changes are merged: pets that change while a patch is queued are patched in the
+ * same pass, and listeners only see the newest snapshot once the main thread gets to it.
+ */
+public class PetCatalogStore {
+
+    /** Tag for the log messages */
+    public static final String LOG_TAG = PetCatalogStore.class.getSimpleName();
+
+    /**
+     * Callback for when a new {@link Snapshot} is ready. Always called on the main thread.
+     */
+    public interface Listener {
+        void onSnapshotChanged(Snapshot snapshot);
+    }
+
+    /** Columns read from the provider for every pet */
+    private static final String[] PROJECTION = {
+            PetsContract.PetsEntry._ID,
+            PetsContract.PetsEntry.COLUMN_PET_NAME,
+            PetsContract.PetsEntry.COLUMN_PET_BREED,
+            PetsContract.PetsEntry.COLUMN_PET_GENDER,
+            PetsContract.PetsEntry.COLUMN_PET_WEIGHT};
+
+    /**
+     * Most pets to patch one by one in a single pass. Every patch copies the columns, so larger
+     * batches, like a bulk insert, reload the whole table instead.
+     */
+    private static final int MAX_PATCHED_PETS = 32;
+
+    /** The single store instance, created on first use */
+    private static PetCatalogStore sInstance;
+
+    private final ContentResolver mContentResolver;
+
+    /** Loads and patches snapshots one at a time, in the order the changes arrived */
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+    /** Whether a full reload is already queued, so bursts of changes cause a single reload */
+    private final AtomicBoolean mReloadPending = new AtomicBoolean();
+
+    /** Ids of the pets that changed since the last patch. Guarded by itself. */
+    private final Set<Long> mChangedPets = new HashSet<>();
+
+    /** Whether a patch is queued for {@link #mChangedPets}. Guarded by mChangedPets. */
+    private boolean mPatchPending;
+
+    /** Snapshot waiting to be handed to the main thread, null if none is waiting */
+    private final AtomicReference<Snapshot> mUnpublished = new AtomicReference<>();
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private final List<Listener> mListeners = new ArrayList<>();
+
+    /** The snapshot that the next patch applies to. Only used on the executor thread. */
+    private Snapshot mLatest;
+
+    /** The latest snapshot handed to the main thread, or null until the first load finishes */
+    private volatile Snapshot mSnapshot;
+
+    /**
+     * Returns the shared store, creating it and starting the first load if needed.
+     */
+    public static synchronized PetCatalogStore getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new PetCatalogStore(context.getApplicationContext().getContentResolver());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Blocks until the shared store, if it was created, has finished every load and patch
+     * queued so far. Used by benchmarks, so a background reload does not distort their numbers.
+     */
+    static void awaitIdle() throws InterruptedException {
+        PetCatalogStore store;
+        synchronized (PetCatalogStore.class) {
+            store = sInstance;
+        }
+        if (store == null) {
+            return;
+        }
+        try {
+            store.mExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    // Runs after everything queued before it
+                }
+            }).get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private PetCatalogStore(ContentResolver contentResolver) {
+        mContentResolver = contentResolver;
+
+        mContentResolver.registerContentObserver(PetsContract.PetsEntry.CONTENT_URI, true,
+                new ContentObserver(mMainHandler) {
+                    @Override
+                    public void onChange(boolean selfChange) {
+                        // Only called without a URI before Jelly Bean
+                        reload();
+                    }
+
+                    @Override
+                    public void onChange(boolean selfChange, Uri uri) {
+                        long id = parsePetId(uri);
+                        if (id == -1) {
+                            reload();
+                        } else {
+                            reloadPet(id);
+                        }
+                    }
+                });
+
+        reload();
+    }
+
+    /**
+     * Returns the id of the pet that the given URI points to, or -1 if it points to more than
+     * one pet.
+     */
+    private static long parsePetId(Uri uri) {
+        if (uri == null) {
+            return -1;
+        }
+        List<String> segments = uri.getPathSegments();
+        if (segments.size() != 2 || !PetsContract.PATH_PETS.equals(segments.get(0))) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(segments.get(1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Returns the latest snapshot, or null if the first load has not finished yet.
+     */
+    public Snapshot getSnapshot() {
+        return mSnapshot;
+    }
+
+    /**
+     * Registers a listener for new snapshots. Must be called on the main thread.
+     */
+    public void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    /**
+     * Unregisters a listener added with {@link #addListener(Listener)}. Must be called on the
+     * main thread.
+     */
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Queues a reload of the whole snapshot from the provider, unless one is already queued.
+     */
+    public void reload() {
+        if (!mReloadPending.compareAndSet(false, true)) {
+            return;
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mReloadPending.set(false);
+                // The full load picks up every pet that changed until now
+                synchronized (mChangedPets) {
+                    mChangedPets.clear();
+                }
+                try {
+                    publish(load(mContentResolver));
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "Unable to load the pet catalog", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Queues a reload of a single pet. The pet is added, replaced or removed in a copy of the
+     * latest snapshot, which costs a copy of the primitive arrays instead of a full query.
+     * Pets that change before the patch runs are patched in the same pass.
+     */
+    public void reloadPet(long id) {
+        if (mReloadPending.get()) {
+            // The queued full load will read this pet too
+            return;
+        }
+        synchronized (mChangedPets) {
+            mChangedPets.add(id);
+            if (mPatchPending) {
+                return;
+            }
+            mPatchPending = true;
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                long[] ids;
+                synchronized (mChangedPets) {
+                    mPatchPending = false;
+                    ids = new long[mChangedPets.size()];
+                    int i = 0;
+                    for (long changed : mChangedPets) {
+                        ids[i++] = changed;
+                    }
+                    mChangedPets.clear();
+                }
+                if (ids.length == 0) {
+                    // A full load ran in the meantime
+                    return;
+                }
+                try {
+                    if (mLatest == null || ids.length > MAX_PATCHED_PETS) {
+                        // Nothing to patch yet, or cheaper to read everything once
+                        publish(load(mContentResolver));
+                    } else {
+                        Snapshot snapshot = mLatest;
+                        for (long id : ids) {
+                            snapshot = loadPet(mContentResolver, snapshot, id);
+                        }
+                        publish(snapshot);
+                    }
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "Unable to load pets " + Arrays.toString(ids), e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Makes the given snapshot the latest one and hands it to the listeners on the main thread.
+     * If an earlier snapshot is still waiting for the main thread, it is replaced, so the
+     * listeners skip straight to the newest one. Called on the executor thread.
+     */
+    private void publish(Snapshot snapshot) {
+        mLatest = snapshot;
+        if (mUnpublished.getAndSet(snapshot) != null) {
+            // Already posted, the runnable below will pick up this snapshot
+            return;
+        }
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Snapshot latest = mUnpublished.getAndSet(null);
+                mSnapshot = latest;
+                for (Listener listener : new ArrayList<>(mListeners)) {
+                    listener.onSnapshotChanged(latest);
+                }
+            }
+        });
+    }
+
+    /**
+     * Reads all pets from the provider into a new snapshot. Does blocking I/O, never call this
+     * on the main thread.
+     */
+    public static Snapshot load(ContentResolver contentResolver) {
+        TraceCompat.beginSection("PetCatalogStore.load");
+        Cursor cursor = contentResolver.query(PetsContract.PetsEntry.CONTENT_URI, PROJECTION,
+                null, null, PetsContract.PetsEntry._ID);
+        try {
+            if (cursor == null) {
+                throw new IllegalStateException("Pet provider returned no cursor");
+            }
+            return Snapshot.fromCursor(cursor);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+            TraceCompat.endSection();
+        }
+    }
+
+    /**
+     * Reads one pet from the provider and returns a copy of the given snapshot with that pet
+     * added, replaced or, if it no longer exists, removed. Does blocking I/O, never call this
+     * on the main thread.
+     */
+    static Snapshot loadPet(ContentResolver contentResolver, Snapshot snapshot, long id) {
+        TraceCompat.beginSection("PetCatalogStore.loadPet");
+        Cursor cursor = contentResolver.query(
+                ContentUris.withAppendedId(PetsContract.PetsEntry.CONTENT_URI, id), PROJECTION,
+                null, null, null);
+        try {
+            if (cursor == null) {
+                throw new IllegalStateException("Pet provider returned no cursor");
+            }
+            if (!cursor.moveToFirst()) {
+                return snapshot.withoutRow(id);
+            }
+            return snapshot.withRow(id,
+                    cursor.getString(cursor.getColumnIndexOrThrow(PetsContract.PetsEntry.COLUMN_PET_NAME)),
+                    cursor.getString(cursor.getColumnIndexOrThrow(PetsContract.PetsEntry.COLUMN_PET_BREED)),
+                    cursor.getInt(cursor.getColumnIndexOrThrow(PetsContract.PetsEntry.COLUMN_PET_GENDER)),
+                    cursor.getInt(cursor.getColumnIndexOrThrow(PetsContract.PetsEntry.COLUMN_PET_WEIGHT)));
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+            TraceCompat.endSection();
+        }
+    }
+
+    /**
+     * An immutable, column-oriented copy of the pets table. Rows are addressed by their
+     * position in the snapshot, in {@link PetsContract.PetsEntry#_ID} order. Sorts and filters
+     * take and return arrays of row positions, so they can be chained without copying pets.
+     *
+     * Names and breeds are kept once each in a pool that is sorted by {@link #POOL_ORDER}, so
+     * a string's pool index is also its sort rank and lookups are binary searches. Patching a
+     * row can leave strings in the pool that no row uses anymore, the next full load drops them.
+     */
+    public static final class Snapshot {
+
+        /** Marks a row without a breed in {@link #mBreeds} */
+        private static final int NO_STRING = -1;
+
+        /**
+         * Order of the string pool: ignoring case, and strings that only differ in case by
+         * their natural order, so that distinct strings never compare equal.
+         */
+        static final Comparator<String> POOL_ORDER = new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                int result = String.CASE_INSENSITIVE_ORDER.compare(a, b);
+                return result != 0 ? result : a.compareTo(b);
+            }
+        };
+
+        private final long[] mIds;
+        private final int[] mGenders;
+        private final int[] mWeights;
+
+        /** Index of each row's name in {@link #mStrings} */
+        private final int[] mNames;
+
+        /** Index of each row's breed in {@link #mStrings}, or {@link #NO_STRING} */
+        private final int[] mBreeds;
+
+        /** Every distinct name and breed, stored once and sorted by {@link #POOL_ORDER} */
+        private final String[] mStrings;
+
+        private Snapshot(long[] ids, int[] genders, int[] weights, int[] names, int[] breeds,
+                         String[] strings) {
+            mIds = ids;
+            mGenders = genders;
+            mWeights = weights;
+            mNames = names;
+            mBreeds = breeds;
+            mStrings = strings;
+        }
+
+        /**
+         * Builds a snapshot from a cursor over the pets table, sorted by id.
+         */
+        static Snapshot fromCursor(Cursor cursor) {
+            int count = cursor.getCount();
+            long[] ids = new long[count];
+            String[] names = new String[count];
+            String[] breeds = new String[count];
+            int[] genders = new int[count];
+            int[] weights = new int[count];
+
+            int idColumn = cursor.getColumnIndexOrThrow(PetsContract.PetsEntry._ID);
+            int nameColumn = cursor.getColumnIndexOrThrow(PetsContract.PetsEntry.COLUMN_PET_NAME);
+            int breedColumn = cursor.getColumnIndexOrThrow(PetsContract.PetsEntry.COLUMN_PET_BREED);
+            int genderColumn = cursor.getColumnIndexOrThrow(PetsContract.PetsEntry.COLUMN_PET_GENDER);
+            int weightColumn = cursor.getColumnIndexOrThrow(PetsContract.PetsEntry.COLUMN_PET_WEIGHT);
+
+            int row = 0;
+            while (row < count && cursor.moveToNext()) {
+                ids[row] = cursor.getLong(idColumn);
+                names[row] = cursor.getString(nameColumn);
+                breeds[row] = cursor.getString(breedColumn);
+                genders[row] = cursor.getInt(genderColumn);
+                weights[row] = cursor.getInt(weightColumn);
+                row++;
+            }
+            if (row < count) {
+                ids = Arrays.copyOf(ids, row);
+                names = Arrays.copyOf(names, row);
+                breeds = Arrays.copyOf(breeds, row);
+                genders = Arrays.copyOf(genders, row);
+                weights = Arrays.copyOf(weights, row);
+            }
+            return fromColumns(ids, names, breeds, genders, weights);
+        }
+
+        /**
+         * Builds a snapshot from plain columns. The ids must be sorted ascending. Names must
+         * not be null, breeds may be.
+         */
+        static Snapshot fromColumns(long[] ids, String[] names, String[] breeds, int[] genders,
+                                    int[] weights) {
+            int count = ids.length;
+
+            // Sort all strings once and drop duplicates, this is the pool
+            String[] strings = new String[2 * count];
+            int size = 0;
+            for (int row = 0; row < count; row++) {
+                strings[size++] = names[row];
+                if (breeds[row] != null) {
+                    strings[size++] = breeds[row];
+                }
+            }
+            Arrays.sort(strings, 0, size, POOL_ORDER);
+            int unique = 0;
+            for (int i = 0; i < size; i++) {
+                if (unique == 0 || !strings[unique - 1].equals(strings[i])) {
+                    strings[unique++] = strings[i];
+                }
+            }
+            strings = Arrays.copyOf(strings, unique);
+
+            int[] nameIndices = new int[count];
+            int[] breedIndices = new int[count];
+            for (int row = 0; row < count; row++) {
+                nameIndices[row] = Arrays.binarySearch(strings, names[row], POOL_ORDER);
+                breedIndices[row] = breeds[row] == null
+                        ? NO_STRING : Arrays.binarySearch(strings, breeds[row], POOL_ORDER);
+            }
+            return new Snapshot(ids.clone(), genders.clone(), weights.clone(), nameIndices,
+                    breedIndices, strings);
+        }
+
+        /** Returns the number of pets in the snapshot */
+        public int size() {
+            return mIds.length;
+        }
+
+        /** Returns the number of distinct strings in the pool */
+        int poolSize() {
+            return mStrings.length;
+        }
+
+        /**
+         * Returns the row of the pet with the given id, or a negative number if there is none.
+         */
+        public int findRow(long id) {
+            return Arrays.binarySearch(mIds, id);
+        }
+
+        public long getId(int row) {
+            return mIds[row];
+        }
+
+        public String getName(int row) {
+            return mStrings[mNames[row]];
+        }
+
+        /** Returns the breed of the pet, or null if it has none */
+        public String getBreed(int row) {
+            int breed = mBreeds[row];
+            return breed == NO_STRING ? null : mStrings[breed];
+        }
+
+        public int getGender(int row) {
+            return mGenders[row];
+        }
+
+        public int getWeight(int row) {
+            return mWeights[row];
+        }
+
+        /**
+         * Returns the content URI of the pet at the given row.
+         */
+        public Uri getUri(int row) {
+            return ContentUris.withAppendedId(PetsContract.PetsEntry.CONTENT_URI, mIds[row]);
+        }
+
+        /**
+         * Returns the positions of all rows, in id order.
+         */
+        public int[] allRows() {
+            int[] rows = new int[mIds.length];
+            for (int i = 0; i < rows.length; i++) {
+                rows[i] = i;
+            }
+            return rows;
+        }
+
+        /**
+         * Returns the given rows that have the given gender, keeping their order.
+         */
+        public int[] filterByGender(int[] rows, int gender) {
+            int[] result = new int[rows.length];
+            int size = 0;
+            for (int row : rows) {
+                if (mGenders[row] == gender) {
+                    result[size++] = row;
+                }
+            }
+            return Arrays.copyOf(result, size);
+        }
+
+        /**
+         * Returns the given rows sorted by name, ignoring case. Pets with the same name keep
+         * their order.
+         */
+        public int[] sortByName(int[] rows) {
+            long[] keys = new long[rows.length];
+            for (int i = 0; i < rows.length; i++) {
+                // The pool is sorted, so the pool index is the name's rank
+                keys[i] = packKey(mNames[rows[i]], i);
+            }
+            return unpackRows(keys, rows);
+        }
+
+        /**
+         * Returns the given rows sorted by weight, lightest first. Pets with the same weight
+         * keep their order.
+         */
+        public int[] sortByWeight(int[] rows) {
+            long[] keys = new long[rows.length];
+            for (int i = 0; i < rows.length; i++) {
+                keys[i] = packKey(mWeights[rows[i]], i);
+            }
+            return unpackRows(keys, rows);
+        }
+
+        /**
+         * Packs a sort key and a position into one long, so rows can be sorted with a
+         * primitive sort. The position breaks ties, which keeps the sort stable.
+         */
+        private static long packKey(int key, int position) {
+            return ((long) key << 32) | position;
+        }
+
+        private static int[] unpackRows(long[] keys, int[] rows) {
+            Arrays.sort(keys);
+            int[] result = new int[keys.length];
+            for (int i = 0; i < keys.length; i++) {
+                result[i] = rows[(int) keys[i]];
+            }
+            return result;
+        }
+
+        /**
+         * Returns a copy of this snapshot in which the pet with the given id has the given
+         * values. The pet is added if it is not in the snapshot yet.
+         */
+        Snapshot withRow(long id, String name, String breed, int gender, int weight) {
+            int found = Arrays.binarySearch(mIds, id);
+            int row = found >= 0 ? found : -(found + 1);
+            int size = found >= 0 ? mIds.length : mIds.length + 1;
+
+            long[] ids = new long[size];
+            int[] genders = new int[size];
+            int[] weights = new int[size];
+            int[] names = new int[size];
+            int[] breeds = new int[size];
+            copyAround(mIds, ids, mIds.length, row, found < 0);
+            copyAround(mGenders, genders, mIds.length, row, found < 0);
+            copyAround(mWeights, weights, mIds.length, row, found < 0);
+            copyAround(mNames, names, mIds.length, row, found < 0);
+            copyAround(mBreeds, breeds, mIds.length, row, found < 0);
+
+            ids[row] = id;
+            genders[row] = gender;
+            weights[row] = weight;
+            names[row] = NO_STRING;
+            breeds[row] = NO_STRING;
+
+            String[] strings = mStrings;
+            int nameIndex = Arrays.binarySearch(strings, name, POOL_ORDER);
+            if (nameIndex < 0) {
+                nameIndex = -(nameIndex + 1);
+                strings = insertString(strings, nameIndex, name, names, breeds);
+            }
+            names[row] = nameIndex;
+
+            if (breed != null) {
+                int breedIndex = Arrays.binarySearch(strings, breed, POOL_ORDER);
+                if (breedIndex < 0) {
+                    breedIndex = -(breedIndex + 1);
+                    strings = insertString(strings, breedIndex, breed, names, breeds);
+                }
+                breeds[row] = breedIndex;
+            }
+
+            return new Snapshot(ids, genders, weights, names, breeds, strings);
+        }
+
+        /**
+         * Returns a copy of this snapshot without the pet with the given id, or this snapshot
+         * if it does not contain that pet.
+         */
+        Snapshot withoutRow(long id) {
+            int row = Arrays.binarySearch(mIds, id);
+            if (row < 0) {
+                return this;
+            }
+            int size = mIds.length - 1;
+            long[] ids = new long[size];
+            int[] genders = new int[size];
+            int[] weights = new int[size];
+            int[] names = new int[size];
+            int[] breeds = new int[size];
+            copyWithout(mIds, ids, mIds.length, row);
+            copyWithout(mGenders, genders, mIds.length, row);
+            copyWithout(mWeights, weights, mIds.length, row);
+            copyWithout(mNames, names, mIds.length, row);
+            copyWithout(mBreeds, breeds, mIds.length, row);
+            return new Snapshot(ids, genders, weights, names, breeds, mStrings);
+        }
+
+        /**
+         * Copies the first {@code length} elements of the array {@code from} into {@code to},
+         * leaving a gap at {@code row} if {@code insert} is set.
+         */
+        private static void copyAround(Object from, Object to, int length, int row, boolean insert) {
+            System.arraycopy(from, 0, to, 0, row);
+            if (insert) {
+                System.arraycopy(from, row, to, row + 1, length - row);
+            } else {
+                System.arraycopy(from, row, to, row, length - row);
+            }
+        }
+
+        /**
+         * Copies the first {@code length} elements of the array {@code from} into {@code to},
+         * skipping {@code row}.
+         */
+        private static void copyWithout(Object from, Object to, int length, int row) {
+            System.arraycopy(from, 0, to, 0, row);
+            System.arraycopy(from, row + 1, to, row, length - row - 1);
+        }
+
+        /**
+         * Returns a copy of the pool with the given string inserted at the given index, and
+         * moves the string indices of all rows that point at or behind it.
+         */
+        private static String[] insertString(String[] strings, int index, String value,
+                                             int[] names, int[] breeds) {
+            String[] result = new String[strings.length + 1];
+            System.arraycopy(strings, 0, result, 0, index);
+            result[index] = value;
+            System.arraycopy(strings, index, result, index + 1, strings.length - index);
+            for (int row = 0; row < names.length; row++) {
+                if (names[row] >= index) {
+                    names[row]++;
+                }
+                if (breeds[row] >= index) {
+                    breeds[row]++;
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Returns an estimate of the heap used by this snapshot, in bytes. Arrays are counted
+         * exactly with a 16 byte header. Strings are estimated as a 24 byte object plus two
+         * bytes per character, devices that compress strings use less.
+         */
+        public long estimateMemoryBytes() {
+            long bytes = 16 + 8L * mIds.length;
+            bytes += 4 * (16 + 4L * mIds.length);
+            bytes += 16 + 4L * mStrings.length;
+            for (String string : mStrings) {
+                bytes += 24 + 2L * string.length();
+            }
+            return bytes;
+        }
+    }
+}
@@ -5,8 +5,10 @@ import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
+import android.support.v4.os.TraceCompat;
 
 /**
  * {@link ContentProvider} for Pets app.
@@ -20,11 +22,17 @@ public class PetProvider extends ContentProvider {
 
     private static final int PETS = 100;
     private static final int PET_ID = 101;
+    private static final int WEIGHTS = 200;
+    private static final int WEIGHT_ID = 201;
+    private static final int WEIGHT_ROLLUPS = 300;
 
     private static final UriMatcher sUriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
     static {
         sUriMatcher.addURI(PetsContract.CONTENT_AUTHORITY, PetsContract.PATH_PETS, PETS);
         sUriMatcher.addURI(PetsContract.CONTENT_AUTHORITY, PetsContract.PATH_PETS + "/#", PET_ID);
+        sUriMatcher.addURI(PetsContract.CONTENT_AUTHORITY, PetsContract.PATH_WEIGHTS, WEIGHTS);
+        sUriMatcher.addURI(PetsContract.CONTENT_AUTHORITY, PetsContract.PATH_WEIGHTS + "/#", WEIGHT_ID);
+        sUriMatcher.addURI(PetsContract.CONTENT_AUTHORITY, PetsContract.PATH_WEIGHT_ROLLUPS, WEIGHT_ROLLUPS);
     }
 
     /**
@@ -32,12 +40,17 @@ public class PetProvider extends ContentProvider {
      */
     @Override
     public boolean onCreate() {
+        TraceCompat.beginSection("PetProvider.onCreate");
+        try {
+            // Get the shared PetDbHelper so the provider and the activities use the same
+            // connection. onCreate runs on the main thread at process start, so only start
+            // opening the database here; the first query waits for it to be ready.
+            mDbHelper = PetsDBHelper.getInstance(getContext());
+            mDbHelper.openInBackground();
+        } finally {
+            TraceCompat.endSection();
+        }
 
-        // Create and initialize a PetDbHelper object to gain access to the pets database.
-        // Make sure the variable is a global variable, so it can be referenced from other
-        mDbHelper = new PetsDBHelper(getContext());
-
-        // ContentProvider methods.
         return true;
     }
 
@@ -48,8 +61,21 @@ public class PetProvider extends ContentProvider {
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
-        // Get readable database
-        SQLiteDatabase database = mDbHelper.getReadableDatabase();
+        TraceCompat.beginSection("PetProvider.query");
+        try {
+            return queryDatabase(uri, projection, selection, selectionArgs, sortOrder);
+        } finally {
+            TraceCompat.endSection();
+        }
+    }
+
+    /**
+     * Query the table behind the given URI. Throws if the URI is not supported.
+     */
+    private Cursor queryDatabase(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                                 String sortOrder) {
+        // Get the shared database, waiting for the background open if needed
+        SQLiteDatabase database = mDbHelper.getDatabase();
 
 
         // This cursor will hold the result of the query
@@ -84,10 +110,39 @@ public class PetProvider extends ContentProvider {
                 cursor = database.query(PetsContract.PetsEntry.TABLE_NAME, projection, selection, selectionArgs,
                         null, null, sortOrder);
                 break;
+            case WEIGHTS:
+                // Raw weigh-ins, in time order unless the caller asks otherwise
+                if (sortOrder == null) {
+                    sortOrder = PetsContract.PetWeightsEntry.COLUMN_MEASURED_AT;
+                }
+                cursor = database.query(PetsContract.PetWeightsEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder);
+                break;
+            case WEIGHT_ID:
+                // A single weigh-in, as returned by insert
+                selection = PetsContract.PetWeightsEntry._ID + "=?";
+                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
+                cursor = database.query(PetsContract.PetWeightsEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder);
+                break;
+            case WEIGHT_ROLLUPS:
+                // Weight trends over a range of weeks or months are read from the rollups,
+                // so the cost depends on the number of periods and not on the number of weigh-ins
+                if (sortOrder == null) {
+                    sortOrder = PetsContract.PetWeightRollupsEntry.COLUMN_PERIOD_START;
+                }
+                cursor = database.query(PetsContract.PetWeightRollupsEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder);
+                break;
             default:
                 throw new IllegalArgumentException("Cannot query unknown URI " + uri);
 
         }
+
+        // Set notification URI on the Cursor, so we know what content URI the Cursor was
+        // created for. If the data at this URI changes, then we know we need to update the Cursor.
+        cursor.setNotificationUri(getContext().getContentResolver(), uri);
+
         return cursor;
     }
 
@@ -96,12 +151,19 @@ public class PetProvider extends ContentProvider {
      */
     @Override
     public Uri insert(Uri uri, ContentValues contentValues) {
-        final int match = sUriMatcher.match(uri);
-        switch (match) {
-            case PETS:
-                return insertPet(uri, contentValues);
-            default:
-                throw new IllegalArgumentException("Insertion is not supported for " + uri);
+        TraceCompat.beginSection("PetProvider.insert");
+        try {
+            final int match = sUriMatcher.match(uri);
+            switch (match) {
+                case PETS:
+                    return insertPet(uri, contentValues);
+                case WEIGHTS:
+                    return insertWeight(uri, contentValues);
+                default:
+                    throw new IllegalArgumentException("Insertion is not supported for " + uri);
+            }
+        } finally {
+            TraceCompat.endSection();
         }
     }
 
@@ -129,36 +191,182 @@ public class PetProvider extends ContentProvider {
             throw new IllegalArgumentException("Pet requires valid weight");
         }
 
-        SQLiteDatabase db = mDbHelper.getReadableDatabase();
+        SQLiteDatabase db = mDbHelper.getDatabase();
+
+        // Insert the pet and its first weigh-in together, so the weight history starts with it
+        long id;
+        db.beginTransaction();
+        try {
+            // Insert a new pet into the pets database table with the given ContentValues
+            id = db.insert(PetsContract.PetsEntry.TABLE_NAME, null, values);
+            if (id != -1 && weight != null) {
+                appendWeighIn(db, id, weight, System.currentTimeMillis());
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
 
-        // Insert a new pet into the pets database table with the given ContentValues
-        long id = db.insert(PetsContract.PetsEntry.TABLE_NAME, null, values);
+        // Notify all listeners that the data has changed for the new pet's content URI. Observers
+        // of the pets URI are notified too, and can tell from the URI which pet was added.
+        if (id != -1) {
+            getContext().getContentResolver().notifyChange(ContentUris.withAppendedId(uri, id), null);
+            if (weight != null) {
+                notifyWeightsChanged();
+            }
+        }
 
         // Once we know the ID of the new row in the table,
         // return the new URI with the ID appended to the end of it
         return ContentUris.withAppendedId(uri, id);
     }
 
+    /**
+     * Append a weigh-in to the database and add it to the weekly and monthly rollups of its pet.
+     * If it is the pet's newest weigh-in, it also becomes the pet's weight. Return the new
+     * content URI for that specific row in the database. Throws
+     * {@link IllegalArgumentException} if the pet does not exist.
+     */
+    private Uri insertWeight(Uri uri, ContentValues values) {
+
+        // Check that the weigh-in belongs to a pet
+        Long petId = values.getAsLong(PetsContract.PetWeightsEntry.COLUMN_PET_ID);
+        if (petId == null) {
+            throw new IllegalArgumentException("Weigh-in requires a pet");
+        }
+
+        // Check that the weight is present and greater than or equal to 0 kg
+        Integer weight = values.getAsInteger(PetsContract.PetWeightsEntry.COLUMN_WEIGHT);
+        if (weight == null || weight < 0) {
+            throw new IllegalArgumentException("Weigh-in requires valid weight");
+        }
+
+        // Weigh-ins without a time were taken now
+        Long measuredAt = values.getAsLong(PetsContract.PetWeightsEntry.COLUMN_MEASURED_AT);
+        if (measuredAt == null) {
+            measuredAt = System.currentTimeMillis();
+        }
+
+        SQLiteDatabase db = mDbHelper.getDatabase();
+
+        // Insert the weigh-in and update the rollups together, so they never disagree
+        long id;
+        int petsUpdated;
+        db.beginTransaction();
+        try {
+            // Check that the pet exists, inside the transaction so it can't be deleted meanwhile
+            long pets = DatabaseUtils.queryNumEntries(db, PetsContract.PetsEntry.TABLE_NAME,
+                    PetsContract.PetsEntry._ID + "=?", new String[]{String.valueOf(petId)});
+            if (pets == 0) {
+                throw new IllegalArgumentException("Weigh-in requires an existing pet");
+            }
+
+            id = appendWeighIn(db, petId, weight, measuredAt);
+
+            // Keep the pet's weight at its newest weigh-in, older ones only fill in the history
+            ContentValues pet = new ContentValues();
+            pet.put(PetsContract.PetsEntry.COLUMN_PET_WEIGHT, weight);
+            petsUpdated = db.update(PetsContract.PetsEntry.TABLE_NAME, pet,
+                    PetsContract.PetsEntry._ID + "=? AND NOT EXISTS (SELECT 1 FROM "
+                            + PetsContract.PetWeightsEntry.TABLE_NAME + " WHERE "
+                            + PetsContract.PetWeightsEntry.COLUMN_PET_ID + "=? AND "
+                            + PetsContract.PetWeightsEntry.COLUMN_MEASURED_AT + ">?)",
+                    new String[]{String.valueOf(petId), String.valueOf(petId), String.valueOf(measuredAt)});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        // Notify all listeners that the weigh-ins and the rollups have changed
+        Uri weightUri = ContentUris.withAppendedId(uri, id);
+        getContext().getContentResolver().notifyChange(weightUri, null);
+        getContext().getContentResolver().notifyChange(PetsContract.PetWeightRollupsEntry.CONTENT_URI, null);
+        if (petsUpdated != 0) {
+            getContext().getContentResolver().notifyChange(
+                    ContentUris.withAppendedId(PetsContract.PetsEntry.CONTENT_URI, petId), null);
+        }
+
+        return weightUri;
+    }
+
+    /**
+     * Insert a weigh-in and add it to the weekly and monthly rollups of its pet. Must be called
+     * inside a transaction. Return the id of the new weigh-in.
+     */
+    private long appendWeighIn(SQLiteDatabase db, long petId, int weight, long measuredAt) {
+        ContentValues point = new ContentValues();
+        point.put(PetsContract.PetWeightsEntry.COLUMN_PET_ID, petId);
+        point.put(PetsContract.PetWeightsEntry.COLUMN_WEIGHT, weight);
+        point.put(PetsContract.PetWeightsEntry.COLUMN_MEASURED_AT, measuredAt);
+
+        long id = db.insertOrThrow(PetsContract.PetWeightsEntry.TABLE_NAME, null, point);
+        addToRollup(db, petId, PetsContract.PetWeightRollupsEntry.PERIOD_WEEK, measuredAt, weight);
+        addToRollup(db, petId, PetsContract.PetWeightRollupsEntry.PERIOD_MONTH, measuredAt, weight);
+        return id;
+    }
+
+    /**
+     * Notify all listeners that weigh-ins were added outside of {@link #insertWeight}.
+     */
+    private void notifyWeightsChanged() {
+        getContext().getContentResolver().notifyChange(PetsContract.PetWeightsEntry.CONTENT_URI, null);
+        getContext().getContentResolver().notifyChange(PetsContract.PetWeightRollupsEntry.CONTENT_URI, null);
+    }
+
+    /**
+     * Add a weight to the rollup of the given pet for the period that contains the given time,
+     * creating the rollup row if this is the first weigh-in of that period.
+     */
+    private void addToRollup(SQLiteDatabase db, long petId, int period, long measuredAt, int weight) {
+        long periodStart = PetsContract.PetWeightRollupsEntry.periodStart(period, measuredAt);
+
+        db.execSQL("INSERT OR IGNORE INTO " + PetsContract.PetWeightRollupsEntry.TABLE_NAME + " ("
+                        + PetsContract.PetWeightRollupsEntry.COLUMN_PET_ID + ", "
+                        + PetsContract.PetWeightRollupsEntry.COLUMN_PERIOD + ", "
+                        + PetsContract.PetWeightRollupsEntry.COLUMN_PERIOD_START + ", "
+                        + PetsContract.PetWeightRollupsEntry.COLUMN_MIN + ", "
+                        + PetsContract.PetWeightRollupsEntry.COLUMN_MAX + ") VALUES (?, ?, ?, ?, ?)",
+                new Object[]{petId, period, periodStart, weight, weight});
+
+        db.execSQL("UPDATE " + PetsContract.PetWeightRollupsEntry.TABLE_NAME + " SET "
+                        + PetsContract.PetWeightRollupsEntry.COLUMN_COUNT + " = "
+                        + PetsContract.PetWeightRollupsEntry.COLUMN_COUNT + " + 1, "
+                        + PetsContract.PetWeightRollupsEntry.COLUMN_SUM + " = "
+                        + PetsContract.PetWeightRollupsEntry.COLUMN_SUM + " + ?, "
+                        + PetsContract.PetWeightRollupsEntry.COLUMN_MIN + " = MIN("
+                        + PetsContract.PetWeightRollupsEntry.COLUMN_MIN + ", ?), "
+                        + PetsContract.PetWeightRollupsEntry.COLUMN_MAX + " = MAX("
+                        + PetsContract.PetWeightRollupsEntry.COLUMN_MAX + ", ?) WHERE "
+                        + PetsContract.PetWeightRollupsEntry.COLUMN_PET_ID + " = ? AND "
+                        + PetsContract.PetWeightRollupsEntry.COLUMN_PERIOD + " = ? AND "
+                        + PetsContract.PetWeightRollupsEntry.COLUMN_PERIOD_START + " = ?",
+                new Object[]{weight, weight, weight, petId, period, periodStart});
+    }
+
     /**
      * Updates the data at the given selection and selection arguments, with the new ContentValues.
      */
     @Override
     public int update(Uri uri, ContentValues contentValues, String selection,
                       String[] selectionArgs) {
-
-        final int match = sUriMatcher.match(uri);
-        switch (match) {
-            case PETS:
-                return updatePet(uri, contentValues, selection, selectionArgs);
-            case PET_ID:
-                // For the PET_ID code, extract out the ID from the URI,
-                // so we know which row to update. Selection will be "_id=?" and selection
-                // arguments will be a String array containing the actual ID.
-                selection = PetsContract.PetsEntry._ID + "=?";
-                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
-                return updatePet(uri, contentValues, selection, selectionArgs);
-            default:
-                throw new IllegalArgumentException("Update is not supported for " + uri);
+        TraceCompat.beginSection("PetProvider.update");
+        try {
+            final int match = sUriMatcher.match(uri);
+            switch (match) {
+                case PETS:
+                    return updatePet(uri, contentValues, selection, selectionArgs);
+                case PET_ID:
+                    // For the PET_ID code, extract out the ID from the URI,
+                    // so we know which row to update. Selection will be "_id=?" and selection
+                    // arguments will be a String array containing the actual ID.
+                    selection = PetsContract.PetsEntry._ID + "=?";
+                    selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+                    return updatePet(uri, contentValues, selection, selectionArgs);
+                default:
+                    throw new IllegalArgumentException("Update is not supported for " + uri);
+            }
+        } finally {
+            TraceCompat.endSection();
         }
     }
 
@@ -189,9 +397,10 @@ public class PetProvider extends ContentProvider {
 
         // If the {@link PetEntry#COLUMN_PET_WEIGHT} key is present,
         // check that the weight value is valid.
+        Integer weight = null;
         if (values.containsKey(PetsContract.PetsEntry.COLUMN_PET_WEIGHT)) {
             // Check that the weight is greater than or equal to 0 kg
-            Integer weight = values.getAsInteger(PetsContract.PetsEntry.COLUMN_PET_WEIGHT);
+            weight = values.getAsInteger(PetsContract.PetsEntry.COLUMN_PET_WEIGHT);
             if (weight != null && weight < 0) {
                 throw new IllegalArgumentException("Pet requires valid weight");
             }
@@ -203,35 +412,113 @@ public class PetProvider extends ContentProvider {
         }
 
         // Update the selected pets in the pets database table with the given ContentValues
-        SQLiteDatabase db = mDbHelper.getReadableDatabase();
+        SQLiteDatabase db = mDbHelper.getDatabase();
+
+        // Update the pets and record a weigh-in for every pet whose weight changes, together,
+        // so the pets table and the weight history never disagree
+        long[] weighedPets = new long[0];
+        long id;
+        db.beginTransaction();
+        try {
+            if (weight != null) {
+                weighedPets = queryPetsWithOtherWeight(db, selection, selectionArgs, weight);
+            }
+            id = db.update(PetsContract.PetsEntry.TABLE_NAME, values, selection, selectionArgs);
+            long now = System.currentTimeMillis();
+            for (long petId : weighedPets) {
+                appendWeighIn(db, petId, weight, now);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
 
-        // Insert a new pet into the pets database table with the given ContentValues
-        long id = db.update(PetsContract.PetsEntry.TABLE_NAME, values, selection, selectionArgs);
+        // If 1 or more rows were updated, then notify all listeners that the data at the
+        // given URI has changed
+        if (id != 0) {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+        if (weighedPets.length != 0) {
+            notifyWeightsChanged();
+        }
 
         // Return the number of rows that were affected
         return (int)id;
     }
 
+    /**
+     * Return the ids of the pets in the given selection whose weight is not the given one.
+     */
+    private long[] queryPetsWithOtherWeight(SQLiteDatabase db, String selection, String[] selectionArgs,
+                                            int weight) {
+        String otherWeight = PetsContract.PetsEntry.COLUMN_PET_WEIGHT + " IS NULL OR "
+                + PetsContract.PetsEntry.COLUMN_PET_WEIGHT + "!=?";
+        String[] args;
+        if (selection == null) {
+            selection = otherWeight;
+            args = new String[]{String.valueOf(weight)};
+        } else {
+            selection = "(" + selection + ") AND (" + otherWeight + ")";
+            int count = selectionArgs == null ? 0 : selectionArgs.length;
+            args = new String[count + 1];
+            if (count != 0) {
+                System.arraycopy(selectionArgs, 0, args, 0, count);
+            }
+            args[count] = String.valueOf(weight);
+        }
+
+        Cursor cursor = db.query(PetsContract.PetsEntry.TABLE_NAME,
+                new String[]{PetsContract.PetsEntry._ID}, selection, args, null, null, null);
+        try {
+            long[] ids = new long[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                ids[i] = cursor.getLong(0);
+            }
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
+
     /**
      * Delete the data at the given selection and selection arguments.
      */
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
-        // Get writeable database
-        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        TraceCompat.beginSection("PetProvider.delete");
+        try {
+            // Get the shared database, waiting for the background open if needed
+            SQLiteDatabase database = mDbHelper.getDatabase();
+
+            // Track the number of rows that were deleted
+            int rowsDeleted;
+
+            final int match = sUriMatcher.match(uri);
+            switch (match) {
+                case PETS:
+                    // Delete all rows that match the selection and selection args
+                    rowsDeleted = database.delete(PetsContract.PetsEntry.TABLE_NAME, selection, selectionArgs);
+                    break;
+                case PET_ID:
+                    // Delete a single row given by the ID in the URI
+                    selection = PetsContract.PetsEntry._ID + "=?";
+                    selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
+                    rowsDeleted = database.delete(PetsContract.PetsEntry.TABLE_NAME, selection, selectionArgs);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Deletion is not supported for " + uri);
+            }
 
-        final int match = sUriMatcher.match(uri);
-        switch (match) {
-            case PETS:
-                // Delete all rows that match the selection and selection args
-                return database.delete(PetsContract.PetsEntry.TABLE_NAME, selection, selectionArgs);
-            case PET_ID:
-                // Delete a single row given by the ID in the URI
-                selection = PetsContract.PetsEntry._ID + "=?";
-                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
-                return database.delete(PetsContract.PetsEntry.TABLE_NAME, selection, selectionArgs);
-            default:
-                throw new IllegalArgumentException("Deletion is not supported for " + uri);
+            // If 1 or more rows were deleted, then notify all listeners that the data at the
+            // given URI has changed
+            if (rowsDeleted != 0) {
+                getContext().getContentResolver().notifyChange(uri, null);
+            }
+
+            // Return the number of rows deleted
+            return rowsDeleted;
+        } finally {
+            TraceCompat.endSection();
         }
     }
 
@@ -246,6 +533,12 @@ public class PetProvider extends ContentProvider {
                 return PetsContract.PetsEntry.CONTENT_LIST_TYPE;
             case PET_ID:
                 return PetsContract.PetsEntry.CONTENT_ITEM_TYPE;
+            case WEIGHTS:
+                return PetsContract.PetWeightsEntry.CONTENT_LIST_TYPE;
+            case WEIGHT_ID:
+                return PetsContract.PetWeightsEntry.CONTENT_ITEM_TYPE;
+            case WEIGHT_ROLLUPS:
+                return PetsContract.PetWeightRollupsEntry.CONTENT_LIST_TYPE;
             default:
                 throw new IllegalStateException("Unknown URI " + uri + " with match " + match);
         }
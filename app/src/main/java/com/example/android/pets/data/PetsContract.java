@@ -4,6 +4,9 @@ import android.content.ContentResolver;
 import android.net.Uri;
 import android.provider.BaseColumns;
 
+import java.util.Calendar;
+import java.util.TimeZone;
+
 public final class PetsContract {
 
 
@@ -32,6 +35,12 @@ public final class PetsContract {
      */
     public static final String PATH_PETS = "pets";
 
+    /** Path for the weigh-ins of all pets */
+    public static final String PATH_WEIGHTS = "weights";
+
+    /** Path for the weekly and monthly weight rollups of all pets */
+    public static final String PATH_WEIGHT_ROLLUPS = "weight_rollups";
+
     public static final class PetsEntry implements BaseColumns {
 
         /** The content URI to access the pet data in the provider */
@@ -75,4 +84,130 @@ public final class PetsContract {
         }
 
     }
+
+    /**
+     * A single weigh-in of a pet. Rows are only ever appended, every insert also updates the
+     * matching rows in {@link PetWeightRollupsEntry}.
+     *
+     * {@link PetsEntry#COLUMN_PET_WEIGHT} is the pet's current weight: saving a pet with a new
+     * weight appends a weigh-in, and inserting a weigh-in newer than all others sets the pet's
+     * weight.
+     */
+    public static final class PetWeightsEntry implements BaseColumns {
+
+        /** The content URI to access the weigh-ins in the provider */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_WEIGHTS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of weigh-ins.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + PetsContract.CONTENT_AUTHORITY + "/" + PetsContract.PATH_WEIGHTS;
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a single weigh-in.
+         */
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + PetsContract.CONTENT_AUTHORITY + "/" + PetsContract.PATH_WEIGHTS;
+
+        public final static String TABLE_NAME = "pet_weights";
+
+        public final static String _ID = BaseColumns._ID;
+
+        /** The {@link PetsEntry#_ID} of the weighed pet */
+        public final static String COLUMN_PET_ID = "pet_id";
+
+        /** The measured weight in kg */
+        public final static String COLUMN_WEIGHT = "weight";
+
+        /** When the pet was weighed, in milliseconds since the epoch. Defaults to now. */
+        public final static String COLUMN_MEASURED_AT = "measured_at";
+    }
+
+    /**
+     * Weight statistics of a pet for one week or one month. These rows are maintained by the
+     * provider as weigh-ins arrive and are read-only for clients. Range queries should use this
+     * table rather than scanning {@link PetWeightsEntry}.
+     */
+    public static final class PetWeightRollupsEntry implements BaseColumns {
+
+        /** The content URI to access the weight rollups in the provider */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_WEIGHT_ROLLUPS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of rollups.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + PetsContract.CONTENT_AUTHORITY + "/" + PetsContract.PATH_WEIGHT_ROLLUPS;
+
+        public final static String TABLE_NAME = "pet_weight_rollups";
+
+        public final static String _ID = BaseColumns._ID;
+
+        /** The {@link PetsEntry#_ID} of the pet */
+        public final static String COLUMN_PET_ID = "pet_id";
+
+        /** Either {@link #PERIOD_WEEK} or {@link #PERIOD_MONTH} */
+        public final static String COLUMN_PERIOD = "period";
+
+        /** Start of the period in milliseconds since the epoch, see {@link #periodStart} */
+        public final static String COLUMN_PERIOD_START = "period_start";
+
+        /** Number of weigh-ins in the period */
+        public final static String COLUMN_COUNT = "count";
+
+        /** Sum of all weights in the period, divide by {@link #COLUMN_COUNT} for the average */
+        public final static String COLUMN_SUM = "sum";
+
+        /** Lowest weight in the period */
+        public final static String COLUMN_MIN = "min";
+
+        /** Highest weight in the period */
+        public final static String COLUMN_MAX = "max";
+
+        public final static int PERIOD_WEEK = 0;
+        public final static int PERIOD_MONTH = 1;
+
+        private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+
+        /**
+         * Returns whether or not the given period is {@link #PERIOD_WEEK} or {@link #PERIOD_MONTH}.
+         */
+        public static boolean isValidPeriod(int period) {
+            return period == PERIOD_WEEK || period == PERIOD_MONTH;
+        }
+
+        /**
+         * Returns the start of the period that contains the given time, in UTC. Weeks start on
+         * Monday, months on their first day.
+         */
+        public static long periodStart(int period, long timeMillis) {
+            if (!isValidPeriod(period)) {
+                throw new IllegalArgumentException("Unknown period " + period);
+            }
+
+            if (period == PERIOD_WEEK) {
+                // The epoch was a Thursday, shift by three days so that weeks start on Monday
+                long days = floorDiv(timeMillis, DAY_MILLIS) + 3;
+                return (floorDiv(days, 7) * 7 - 3) * DAY_MILLIS;
+            }
+
+            Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+            calendar.setTimeInMillis(timeMillis);
+            calendar.set(Calendar.DAY_OF_MONTH, 1);
+            calendar.set(Calendar.HOUR_OF_DAY, 0);
+            calendar.set(Calendar.MINUTE, 0);
+            calendar.set(Calendar.SECOND, 0);
+            calendar.set(Calendar.MILLISECOND, 0);
+            return calendar.getTimeInMillis();
+        }
+
+        private static long floorDiv(long x, long y) {
+            long q = x / y;
+            if ((x % y != 0) && ((x < 0) != (y < 0))) {
+                q--;
+            }
+            return q;
+        }
+    }
 }
@@ -3,18 +3,108 @@ package com.example.android.pets.data;
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.AsyncTask;
 import android.support.annotation.Nullable;
 
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Process-wide access to the shelter database. Use {@link #getInstance(Context)} instead of
+ * creating a new helper, so that the whole app shares one connection pool and the schema
+ * is only checked once.
+ */
 public class PetsDBHelper extends SQLiteOpenHelper {
 
     public final static String DATABASE_NAME = "shelter.db";
-    public final static int DATABASE_VERSION = 1;
+    public final static int DATABASE_VERSION = 2;
+
+    /** The single helper instance, created on first use */
+    private static PetsDBHelper sInstance;
+
+    /**
+     * Guards {@link #mOpenTask}. Not the helper itself, because SQLiteOpenHelper holds that
+     * lock for as long as the database is being opened.
+     */
+    private final Object mOpenLock = new Object();
+
+    /** Opens the database, or null if no open was started or the last one failed */
+    private FutureTask<SQLiteDatabase> mOpenTask;
+
+    /**
+     * Returns the shared helper, creating it if needed. Creating the helper is cheap, the
+     * database itself is not opened until {@link #openInBackground()} or
+     * {@link #getDatabase()} is called.
+     */
+    public static synchronized PetsDBHelper getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new PetsDBHelper(context.getApplicationContext());
+        }
+        return sInstance;
+    }
 
-    public PetsDBHelper(Context context) {
+    private PetsDBHelper(Context context) {
 
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
     }
 
+    /**
+     * Starts opening the database on a background thread. Does nothing if the database is
+     * already open or being opened.
+     */
+    public void openInBackground() {
+        startOpen();
+    }
+
+    /**
+     * Returns the task that opens the database, starting it if there is none yet.
+     */
+    private FutureTask<SQLiteDatabase> startOpen() {
+        FutureTask<SQLiteDatabase> task;
+        synchronized (mOpenLock) {
+            if (mOpenTask != null) {
+                return mOpenTask;
+            }
+            task = new FutureTask<>(new Callable<SQLiteDatabase>() {
+                @Override
+                public SQLiteDatabase call() {
+                    return getWritableDatabase();
+                }
+            });
+            mOpenTask = task;
+        }
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(task);
+        return task;
+    }
+
+    /**
+     * Returns the open database, waiting for the background open to finish if it is still
+     * running. If opening failed, the next call tries again.
+     */
+    public SQLiteDatabase getDatabase() {
+        FutureTask<SQLiteDatabase> task = startOpen();
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            // Keep the interrupt for the caller and open the database on this thread instead
+            Thread.currentThread().interrupt();
+            return getWritableDatabase();
+        } catch (ExecutionException e) {
+            // Forget the failed open, so the database is not stuck in the failed state
+            synchronized (mOpenLock) {
+                if (mOpenTask == task) {
+                    mOpenTask = null;
+                }
+            }
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException("Unable to open " + DATABASE_NAME, cause);
+        }
+    }
+
     @Override
     public void onCreate(SQLiteDatabase sqLiteDatabase) {
 
@@ -28,10 +118,62 @@ public class PetsDBHelper extends SQLiteOpenHelper {
 
         // Execute the SQL statement
         sqLiteDatabase.execSQL(SQL_CREATE_PETS_TABLE);
+
+        createWeightTables(sqLiteDatabase);
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase sqLiteDatabase) {
+        super.onOpen(sqLiteDatabase);
+
+        // Foreign keys are off by default, turn them on so weigh-ins are removed with their pet
+        if (!sqLiteDatabase.isReadOnly()) {
+            sqLiteDatabase.execSQL("PRAGMA foreign_keys=ON;");
+        }
     }
 
     @Override
-    public void onUpgrade(SQLiteDatabase sqLiteDatabase, int i, int i1) {
+    public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
+        if (oldVersion < 2) {
+            createWeightTables(sqLiteDatabase);
+        }
+    }
+
+    /**
+     * Creates the weigh-in time-series table and the table holding its weekly and monthly
+     * rollups.
+     */
+    private void createWeightTables(SQLiteDatabase sqLiteDatabase) {
+        String SQL_CREATE_WEIGHTS_TABLE = "CREATE TABLE " + PetsContract.PetWeightsEntry.TABLE_NAME + "("
+                + PetsContract.PetWeightsEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + PetsContract.PetWeightsEntry.COLUMN_PET_ID + " INTEGER NOT NULL REFERENCES "
+                + PetsContract.PetsEntry.TABLE_NAME + "(" + PetsContract.PetsEntry._ID + ") ON DELETE CASCADE, "
+                + PetsContract.PetWeightsEntry.COLUMN_WEIGHT + " INTEGER NOT NULL, "
+                + PetsContract.PetWeightsEntry.COLUMN_MEASURED_AT + " INTEGER NOT NULL);";
+
+        // Weigh-ins are always read per pet in time order
+        String SQL_CREATE_WEIGHTS_INDEX = "CREATE INDEX " + PetsContract.PetWeightsEntry.TABLE_NAME + "_pet_time ON "
+                + PetsContract.PetWeightsEntry.TABLE_NAME + "("
+                + PetsContract.PetWeightsEntry.COLUMN_PET_ID + ", "
+                + PetsContract.PetWeightsEntry.COLUMN_MEASURED_AT + ");";
+
+        // One row per pet, period and period start, which is also the order range queries use
+        String SQL_CREATE_ROLLUPS_TABLE = "CREATE TABLE " + PetsContract.PetWeightRollupsEntry.TABLE_NAME + "("
+                + PetsContract.PetWeightRollupsEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + PetsContract.PetWeightRollupsEntry.COLUMN_PET_ID + " INTEGER NOT NULL REFERENCES "
+                + PetsContract.PetsEntry.TABLE_NAME + "(" + PetsContract.PetsEntry._ID + ") ON DELETE CASCADE, "
+                + PetsContract.PetWeightRollupsEntry.COLUMN_PERIOD + " INTEGER NOT NULL, "
+                + PetsContract.PetWeightRollupsEntry.COLUMN_PERIOD_START + " INTEGER NOT NULL, "
+                + PetsContract.PetWeightRollupsEntry.COLUMN_COUNT + " INTEGER NOT NULL DEFAULT 0, "
+                + PetsContract.PetWeightRollupsEntry.COLUMN_SUM + " INTEGER NOT NULL DEFAULT 0, "
+                + PetsContract.PetWeightRollupsEntry.COLUMN_MIN + " INTEGER NOT NULL, "
+                + PetsContract.PetWeightRollupsEntry.COLUMN_MAX + " INTEGER NOT NULL, "
+                + "UNIQUE (" + PetsContract.PetWeightRollupsEntry.COLUMN_PET_ID + ", "
+                + PetsContract.PetWeightRollupsEntry.COLUMN_PERIOD + ", "
+                + PetsContract.PetWeightRollupsEntry.COLUMN_PERIOD_START + "));";
 
+        sqLiteDatabase.execSQL(SQL_CREATE_WEIGHTS_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_WEIGHTS_INDEX);
+        sqLiteDatabase.execSQL(SQL_CREATE_ROLLUPS_TABLE);
     }
 }
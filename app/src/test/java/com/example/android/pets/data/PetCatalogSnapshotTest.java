@@ -0,0 +1,169 @@
+package com.example.android.pets.data;
+
+import com.example.android.pets.data.PetCatalogStore.Snapshot;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static com.example.android.pets.data.PetsContract.PetsEntry.GENDER_FEMALE;
+import static com.example.android.pets.data.PetsContract.PetsEntry.GENDER_MALE;
+import static com.example.android.pets.data.PetsContract.PetsEntry.GENDER_UNKNOWN;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the string pool, sorting, filtering and patching of
+ * {@link PetCatalogStore.Snapshot}.
+ */
+public class PetCatalogSnapshotTest {
+
+    private Snapshot mSnapshot;
+
+    @Before
+    public void buildSnapshot() {
+        mSnapshot = Snapshot.fromColumns(
+                new long[]{2, 4, 6, 8, 10},
+                new String[]{"rex", "Bella", "Max", "bella", "Rex"},
+                new String[]{"Terrier", null, "Tabby", "Terrier", "Max"},
+                new int[]{GENDER_MALE, GENDER_FEMALE, GENDER_MALE, GENDER_FEMALE, GENDER_UNKNOWN},
+                new int[]{12, 7, 4, 7, 30});
+    }
+
+    @Test
+    public void poolStoresEachStringOnce() {
+        // Bella, bella, Max, Rex, rex, Tabby, Terrier. "Max" is a name and a breed.
+        assertEquals(7, mSnapshot.poolSize());
+        assertEquals("Max", mSnapshot.getName(2));
+        assertEquals("Max", mSnapshot.getBreed(4));
+        assertEquals("Terrier", mSnapshot.getBreed(0));
+        assertSame(mSnapshot.getBreed(0), mSnapshot.getBreed(3));
+    }
+
+    @Test
+    public void missingBreedIsNull() {
+        assertNull(mSnapshot.getBreed(1));
+    }
+
+    @Test
+    public void columnsKeepTheirValues() {
+        assertEquals(5, mSnapshot.size());
+        assertEquals(6, mSnapshot.getId(2));
+        assertEquals(GENDER_FEMALE, mSnapshot.getGender(3));
+        assertEquals(30, mSnapshot.getWeight(4));
+        assertEquals(3, mSnapshot.findRow(8));
+        assertTrue(mSnapshot.findRow(5) < 0);
+    }
+
+    @Test
+    public void sortByNameIgnoresCase() {
+        // Bella, bella, Max, Rex, rex
+        assertArrayEquals(new int[]{1, 3, 2, 4, 0}, mSnapshot.sortByName(mSnapshot.allRows()));
+    }
+
+    @Test
+    public void sortByWeightIsStable() {
+        // 4, 7 (id 4), 7 (id 8), 12, 30
+        assertArrayEquals(new int[]{2, 1, 3, 0, 4}, mSnapshot.sortByWeight(mSnapshot.allRows()));
+    }
+
+    @Test
+    public void sortByWeightKeepsGivenOrderForTies() {
+        assertArrayEquals(new int[]{3, 1}, mSnapshot.sortByWeight(new int[]{3, 1}));
+    }
+
+    @Test
+    public void filterByGenderKeepsOrder() {
+        assertArrayEquals(new int[]{0, 2}, mSnapshot.filterByGender(mSnapshot.allRows(), GENDER_MALE));
+        assertArrayEquals(new int[0], mSnapshot.filterByGender(new int[]{1, 3}, GENDER_MALE));
+    }
+
+    @Test
+    public void filterThenSort() {
+        int[] females = mSnapshot.filterByGender(mSnapshot.allRows(), GENDER_FEMALE);
+        assertArrayEquals(new int[]{1, 3}, mSnapshot.sortByName(females));
+    }
+
+    @Test
+    public void emptySnapshot() {
+        Snapshot empty = Snapshot.fromColumns(new long[0], new String[0], new String[0],
+                new int[0], new int[0]);
+        assertEquals(0, empty.size());
+        assertArrayEquals(new int[0], empty.sortByName(empty.allRows()));
+    }
+
+    @Test
+    public void withRowAddsPetWithNewStrings() {
+        Snapshot patched = mSnapshot.withRow(5, "Alfie", "Beagle", GENDER_MALE, 9);
+
+        assertEquals(6, patched.size());
+        assertEquals(2, patched.findRow(5));
+        assertEquals("Alfie", patched.getName(2));
+        assertEquals("Beagle", patched.getBreed(2));
+        assertEquals(9, patched.getWeight(2));
+
+        // The new strings moved the pool, the other pets must still read the same values
+        assertEquals("rex", patched.getName(0));
+        assertEquals("Terrier", patched.getBreed(0));
+        assertNull(patched.getBreed(1));
+        assertEquals("Max", patched.getName(3));
+        assertEquals("Tabby", patched.getBreed(3));
+        assertEquals("Max", patched.getBreed(5));
+
+        // Alfie, Bella, bella, Max, Rex, rex
+        assertArrayEquals(new int[]{2, 1, 4, 3, 5, 0}, patched.sortByName(patched.allRows()));
+
+        // The original snapshot is unchanged
+        assertEquals(5, mSnapshot.size());
+        assertEquals("Max", mSnapshot.getName(2));
+    }
+
+    @Test
+    public void withRowAppendsNewestPet() {
+        Snapshot patched = mSnapshot.withRow(11, "Zed", null, GENDER_UNKNOWN, 1);
+        assertEquals(5, patched.findRow(11));
+        assertEquals("Zed", patched.getName(5));
+        assertNull(patched.getBreed(5));
+    }
+
+    @Test
+    public void withRowReplacesExistingPet() {
+        Snapshot patched = mSnapshot.withRow(6, "Aaron", "Tabby", GENDER_FEMALE, 50);
+
+        assertEquals(5, patched.size());
+        assertEquals("Aaron", patched.getName(2));
+        assertEquals("Tabby", patched.getBreed(2));
+        assertEquals(GENDER_FEMALE, patched.getGender(2));
+        assertEquals(50, patched.getWeight(2));
+        assertEquals("Bella", patched.getName(1));
+        assertArrayEquals(new int[]{2, 1, 3, 4, 0}, patched.sortByName(patched.allRows()));
+        assertArrayEquals(new int[]{1, 3, 0, 4, 2}, patched.sortByWeight(patched.allRows()));
+    }
+
+    @Test
+    public void withoutRowRemovesPet() {
+        Snapshot patched = mSnapshot.withoutRow(4);
+
+        assertEquals(4, patched.size());
+        assertTrue(patched.findRow(4) < 0);
+        assertEquals("rex", patched.getName(0));
+        assertEquals("Max", patched.getName(1));
+        assertEquals("bella", patched.getName(2));
+        assertEquals("Rex", patched.getName(3));
+    }
+
+    @Test
+    public void withoutUnknownRowReturnsSameSnapshot() {
+        assertSame(mSnapshot, mSnapshot.withoutRow(3));
+    }
+
+    @Test
+    public void memoryEstimateCountsArraysAndPool() {
+        long arrays = (16 + 8 * 5) + 4 * (16 + 4 * 5) + (16 + 4 * 7);
+        long strings = 7 * 24 + 2 * ("Bella".length() * 2 + "Max".length() + "Rex".length() * 2
+                + "Tabby".length() + "Terrier".length());
+        assertEquals(arrays + strings, mSnapshot.estimateMemoryBytes());
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.android.pets.data;
+
+import com.example.android.pets.data.PetsContract.PetWeightRollupsEntry;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the week and month bucketing of {@link PetWeightRollupsEntry#periodStart}.
+ * All times are UTC.
+ */
+public class PetWeightRollupsEntryTest {
+
+    private static final long DAY = 24L * 60 * 60 * 1000;
+
+    /** Monday 1969-12-29 00:00, start of the week that contains the epoch */
+    private static final long EPOCH_WEEK_START = -3 * DAY;
+
+    /** Monday 2024-01-01 00:00 */
+    private static final long MONDAY_2024_01_01 = 1704067200000L;
+
+    @Test
+    public void epochIsInWeekStartingMonday() {
+        assertEquals(EPOCH_WEEK_START, week(0));
+    }
+
+    @Test
+    public void epochStartsItsMonth() {
+        assertEquals(0, month(0));
+    }
+
+    @Test
+    public void lastMillisecondBeforeEpochIsInDecember1969() {
+        assertEquals(EPOCH_WEEK_START, week(-1));
+        // 1969-12-01 00:00
+        assertEquals(-31 * DAY, month(-1));
+    }
+
+    @Test
+    public void sundayBeforeEpochBelongsToPreviousWeek() {
+        // Sunday 1969-12-28 12:00 belongs to the week of Monday 1969-12-22
+        assertEquals(-10 * DAY, week(-3 * DAY - DAY / 2));
+    }
+
+    @Test
+    public void sundayNightBelongsToItsOwnWeek() {
+        // Sunday 2023-12-31 23:59:59.999 belongs to the week of Monday 2023-12-25
+        assertEquals(MONDAY_2024_01_01 - 7 * DAY, week(MONDAY_2024_01_01 - 1));
+    }
+
+    @Test
+    public void mondayMidnightStartsANewWeek() {
+        assertEquals(MONDAY_2024_01_01, week(MONDAY_2024_01_01));
+    }
+
+    @Test
+    public void sundayBelongsToWeekOfPreviousMonday() {
+        // Sunday 2024-01-07 12:00
+        assertEquals(MONDAY_2024_01_01, week(MONDAY_2024_01_01 + 6 * DAY + DAY / 2));
+    }
+
+    @Test
+    public void leapDayBelongsToFebruary() {
+        long march2024 = 1709251200000L;
+        long february2024 = 1706745600000L;
+        assertEquals(february2024, month(march2024 - 1));
+        assertEquals(march2024, month(march2024));
+    }
+
+    @Test
+    public void weekCanSpanTwoYears() {
+        // Tuesday 2024-12-31 23:59:59.999
+        long endOf2024 = 1735689599999L;
+        // Monday 2024-12-30
+        assertEquals(1735516800000L, week(endOf2024));
+        // 2024-12-01
+        assertEquals(1733011200000L, month(endOf2024));
+        // 2025-01-01 is in the same week but a new month
+        assertEquals(1735516800000L, week(endOf2024 + 1));
+        assertEquals(endOf2024 + 1, month(endOf2024 + 1));
+    }
+
+    @Test
+    public void onlyWeeksAndMonthsAreValid() {
+        assertTrue(PetWeightRollupsEntry.isValidPeriod(PetWeightRollupsEntry.PERIOD_WEEK));
+        assertTrue(PetWeightRollupsEntry.isValidPeriod(PetWeightRollupsEntry.PERIOD_MONTH));
+        assertFalse(PetWeightRollupsEntry.isValidPeriod(2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownPeriodThrows() {
+        PetWeightRollupsEntry.periodStart(2, 0);
+    }
+
+    private static long week(long timeMillis) {
+        return PetWeightRollupsEntry.periodStart(PetWeightRollupsEntry.PERIOD_WEEK, timeMillis);
+    }
+
+    private static long month(long timeMillis) {
+        return PetWeightRollupsEntry.periodStart(PetWeightRollupsEntry.PERIOD_MONTH, timeMillis);
+    }
+}
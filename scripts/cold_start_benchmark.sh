@@ -0,0 +1,72 @@
+#!/bin/sh
+#
+# Measures process cold starts of the pet catalog on the connected device.
+#
+# Every launch uses "am start -W -S", which kills the app first, so each run pays for process
+# creation, PetProvider.onCreate and opening the database, which is the path the shared
+# PetsDBHelper moves off the main thread. The first launch after installing creates the
+# database and is not counted. Prints the median and maximum TotalTime and WaitTime reported
+# by the activity manager.
+#
+# This cannot run as an instrumentation test: the tests share the app's process, and
+# "am start -S" would kill them along with the app.
+#
+# Usage:
+#   scripts/cold_start_benchmark.sh [-n RUNS] [APK...]
+#
+# Without APKs the installed build is measured. With APKs each one is installed with its data
+# cleared and measured in turn, so a before and after comparison is, for example:
+#
+#   git checkout 389a1cd && ./gradlew assembleDebug && cp app/build/outputs/apk/app-debug.apk before.apk
+#   git checkout - && ./gradlew assembleDebug
+#   scripts/cold_start_benchmark.sh before.apk app/build/outputs/apk/app-debug.apk
+#
+# where 389a1cd is the last commit that opened the database on the main thread.
+
+set -e
+
+PACKAGE=com.example.android.pets
+ACTIVITY=$PACKAGE/.CatalogActivity
+RUNS=15
+
+if [ "$1" = "-n" ]; then
+    RUNS=$2
+    shift 2
+fi
+
+# Prints the median and the maximum of the numbers on stdin
+stats() {
+    sort -n | awk '{ v[NR] = $1 } END { printf "median %d ms, max %d ms", v[int((NR + 1) / 2)], v[NR] }'
+}
+
+# Cold starts the catalog RUNS times and prints the results under the given label
+measure() {
+    # Creates the database, not counted
+    adb shell am start -W -S -n $ACTIVITY > /dev/null
+
+    totals=""
+    waits=""
+    i=0
+    while [ $i -lt "$RUNS" ]; do
+        output=$(adb shell am start -W -S -n $ACTIVITY | tr -d '\r')
+        totals="$totals $(echo "$output" | sed -n 's/^TotalTime: //p')"
+        waits="$waits $(echo "$output" | sed -n 's/^WaitTime: //p')"
+        i=$((i + 1))
+    done
+    adb shell am force-stop $PACKAGE
+
+    echo "$1 ($RUNS cold starts)"
+    echo "  TotalTime: $(echo $totals | tr ' ' '\n' | stats)"
+    echo "  WaitTime:  $(echo $waits | tr ' ' '\n' | stats)"
+}
+
+if [ $# -eq 0 ]; then
+    measure "installed build"
+else
+    for apk in "$@"; do
+        # Older builds cannot open a database created by a newer schema version
+        adb uninstall $PACKAGE > /dev/null || true
+        adb install "$apk" > /dev/null
+        measure "$apk"
+    done
+fi